@@ -0,0 +1,28 @@
+let source = null
+const handlers = {}
+
+/**
+ * 订阅native推送的事件，同一页面共用一个EventSource连接
+ * @param {string} event 事件名称
+ * @param {function} handler 回调，参数为事件数据
+ * @returns {function} 取消订阅
+ */
+export const subscribe = (event, handler) => {
+  if (!source) {
+    source = new EventSource('/native/events')
+  }
+  if (!handlers[event]) {
+    handlers[event] = []
+    source.addEventListener(event, e => {
+      const data = JSON.parse(e.data)
+      handlers[event].forEach(h => h(data))
+    })
+  }
+  handlers[event].push(handler)
+  return () => {
+    const index = handlers[event].indexOf(handler)
+    if (index != -1) {
+      handlers[event].splice(index, 1)
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.nio.file.FileSystems;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 import org.pdown.gui.entity.PDownConfigInfo;
 import org.pdown.rest.base.content.PersistenceContent;
 import org.pdown.rest.util.PathUtil;
@@ -14,11 +15,31 @@ import org.pdown.rest.util.PathUtil;
 public class PDownConfigContent extends PersistenceContent<PDownConfigInfo, PDownConfigContent> {
 
   private static final PDownConfigContent INSTANCE = new PDownConfigContent();
+  //配置版本号，每次加载和保存时递增
+  private final AtomicLong version = new AtomicLong();
 
   public static PDownConfigContent getInstance() {
     return INSTANCE;
   }
 
+  public long getVersion() {
+    return version.get();
+  }
+
+  @Override
+  public PDownConfigContent load() {
+    super.load();
+    version.incrementAndGet();
+    return this;
+  }
+
+  @Override
+  public PDownConfigContent save() {
+    super.save();
+    version.incrementAndGet();
+    return this;
+  }
+
   @Override
   protected TypeReference type() {
     return new TypeReference<PDownConfigInfo>() {
@@ -23,6 +23,16 @@ public class PDownConfigInfo implements Serializable {
   private long lastUpdateCheck;
   //前置代理
   private ProxyConfig proxyConfig;
+  //linux下优先使用epoll传输，不可用时回退到nio
+  private boolean nativeTransport = true;
+  //api服务器和代理服务器共用boss/worker线程池
+  private boolean shareEventLoop;
+  //各线程池的线程数，0表示根据cpu核心数自动计算
+  private int apiBossThreads;
+  private int apiWorkerThreads;
+  private int proxyBossThreads;
+  private int proxyWorkerThreads;
+  private int proxyGroupThreads;
 
   public String getLocale() {
     return locale;
@@ -96,6 +106,69 @@ public class PDownConfigInfo implements Serializable {
     return this;
   }
 
+  public boolean isNativeTransport() {
+    return nativeTransport;
+  }
+
+  public PDownConfigInfo setNativeTransport(boolean nativeTransport) {
+    this.nativeTransport = nativeTransport;
+    return this;
+  }
+
+  public boolean isShareEventLoop() {
+    return shareEventLoop;
+  }
+
+  public PDownConfigInfo setShareEventLoop(boolean shareEventLoop) {
+    this.shareEventLoop = shareEventLoop;
+    return this;
+  }
+
+  public int getApiBossThreads() {
+    return apiBossThreads;
+  }
+
+  public PDownConfigInfo setApiBossThreads(int apiBossThreads) {
+    this.apiBossThreads = apiBossThreads;
+    return this;
+  }
+
+  public int getApiWorkerThreads() {
+    return apiWorkerThreads;
+  }
+
+  public PDownConfigInfo setApiWorkerThreads(int apiWorkerThreads) {
+    this.apiWorkerThreads = apiWorkerThreads;
+    return this;
+  }
+
+  public int getProxyBossThreads() {
+    return proxyBossThreads;
+  }
+
+  public PDownConfigInfo setProxyBossThreads(int proxyBossThreads) {
+    this.proxyBossThreads = proxyBossThreads;
+    return this;
+  }
+
+  public int getProxyWorkerThreads() {
+    return proxyWorkerThreads;
+  }
+
+  public PDownConfigInfo setProxyWorkerThreads(int proxyWorkerThreads) {
+    this.proxyWorkerThreads = proxyWorkerThreads;
+    return this;
+  }
+
+  public int getProxyGroupThreads() {
+    return proxyGroupThreads;
+  }
+
+  public PDownConfigInfo setProxyGroupThreads(int proxyGroupThreads) {
+    this.proxyGroupThreads = proxyGroupThreads;
+    return this;
+  }
+
   public static com.github.monkeywie.proxyee.proxy.ProxyConfig convert(ProxyConfig proxyConfig) {
     if (proxyConfig == null) {
       return null;
@@ -1,10 +1,10 @@
 package org.pdown.gui.extension;
 
-import java.util.Arrays;
-
 public class ContentScript {
 
   private String[] matches;
+  //加载时编译好的matches
+  private ExtensionPattern[] patterns;
   private String[] scripts;
 
   public String[] getMatches() {
@@ -13,6 +13,7 @@ public class ContentScript {
 
   public ContentScript setMatches(String[] matches) {
     this.matches = matches;
+    this.patterns = ExtensionPattern.compile(matches);
     return this;
   }
 
@@ -26,10 +27,6 @@ public class ContentScript {
   }
 
   public boolean isMatch(String url) {
-    if (matches != null
-        && Arrays.stream(matches).anyMatch(m -> url.matches(m))) {
-      return true;
-    }
-    return false;
+    return ExtensionPattern.matchesAny(patterns, url);
   }
 }
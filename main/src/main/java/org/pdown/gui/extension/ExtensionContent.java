@@ -6,10 +6,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import org.pdown.core.util.FileUtil;
 import org.pdown.rest.util.ContentUtil;
 import org.pdown.rest.util.PathUtil;
@@ -22,14 +24,25 @@ public class ExtensionContent {
 
   private static List<ExtensionInfo> EXTENSION_INFO_LIST;
   //代理服务器域名通配符列表
-  private static Set<String> PROXY_WILDCARDS;
+  private static volatile Set<String> PROXY_WILDCARDS;
   //需要嗅探下载的url正则表达式列表
-  private static Set<String> SNIFF_REGEXS;
+  private static volatile Set<String> SNIFF_REGEXS;
+  //由SNIFF_REGEXS编译好的嗅探匹配器
+  private static volatile SniffMatcher SNIFF_MATCHER = SniffMatcher.EMPTY;
   //配置
   private static ExtensionConfig CONFIG;
+  //扩展信息版本号，扩展列表、开关和设置有变动时递增
+  private static final AtomicLong VERSION = new AtomicLong();
+  //上次加载时扩展目录的指纹，目录没变化时不需要重新解析
+  private static String FINGERPRINT;
 
   public static void load() throws IOException {
     File file = new File(EXT_DIR);
+    String fingerprint = fingerprint(file);
+    if (EXTENSION_INFO_LIST != null && fingerprint.equals(FINGERPRINT)) {
+      return;
+    }
+    FINGERPRINT = fingerprint;
     if (EXTENSION_INFO_LIST == null) {
       EXTENSION_INFO_LIST = new ArrayList<>();
     } else {
@@ -69,6 +82,48 @@ public class ExtensionContent {
     refresh();
   }
 
+  //根据各个扩展manifest.json和配置文件的修改时间、大小计算指纹
+  private static String fingerprint(File extDir) {
+    StringBuilder builder = new StringBuilder();
+    appendFileStat(builder, new File(EXT_DIR_CONFIG));
+    List<File> dirs = new ArrayList<>();
+    File[] files = extDir.listFiles();
+    if (files != null) {
+      dirs.addAll(Arrays.asList(files));
+    }
+    if (CONFIG != null && CONFIG.getLocalExtensions() != null) {
+      for (String localExtendDir : CONFIG.getLocalExtensions()) {
+        dirs.add(new File(localExtendDir));
+      }
+    }
+    for (File dir : dirs) {
+      if (dir.isDirectory()) {
+        builder.append(dir.getPath()).append('|');
+        appendFileStat(builder, new File(dir, EXT_MANIFEST));
+        appendFileStat(builder, new File(dir, Meta.CONFIG_FILE));
+      }
+    }
+    return builder.toString();
+  }
+
+  private static void appendFileStat(StringBuilder builder, File file) {
+    builder.append(file.lastModified()).append(',').append(file.length()).append(';');
+  }
+
+  /**
+   * 扩展信息版本号
+   */
+  public static long getVersion() {
+    return VERSION.get();
+  }
+
+  /**
+   * 扩展信息有变动时调用，使缓存的扩展列表失效
+   */
+  public static void increaseVersion() {
+    VERSION.incrementAndGet();
+  }
+
   public static ExtensionConfig getConfig() {
     return CONFIG;
   }
@@ -134,34 +189,38 @@ public class ExtensionContent {
   }
 
   public synchronized static void refresh() {
-    if (PROXY_WILDCARDS == null) {
-      PROXY_WILDCARDS = new HashSet<>();
-    } else {
-      PROXY_WILDCARDS.clear();
-    }
-    if (SNIFF_REGEXS == null) {
-      SNIFF_REGEXS = new HashSet<>();
-    } else {
-      SNIFF_REGEXS.clear();
-    }
+    increaseVersion();
+    Set<String> proxyWildcards = new HashSet<>();
+    Set<String> sniffRegexs = new HashSet<>();
     if (EXTENSION_INFO_LIST != null) {
       for (ExtensionInfo extensionInfo : EXTENSION_INFO_LIST) {
         if (extensionInfo.getMeta().isEnabled()) {
           //读取需要代理的域名匹配符
           if (extensionInfo.getProxyWildcards() != null) {
             for (String wildcard : extensionInfo.getProxyWildcards()) {
-              PROXY_WILDCARDS.add(wildcard.trim());
+              proxyWildcards.add(wildcard.trim());
             }
           }
           //读取需要嗅探下载的url正则表达式
           if (extensionInfo.getSniffRegexs() != null) {
             for (String regex : extensionInfo.getSniffRegexs()) {
-              SNIFF_REGEXS.add(regex.trim());
+              sniffRegexs.add(regex.trim());
             }
           }
         }
       }
     }
+    //生成新的集合再替换，避免其它线程读到清空了一半的集合
+    boolean wildcardsChange = !proxyWildcards.equals(PROXY_WILDCARDS);
+    PROXY_WILDCARDS = proxyWildcards;
+    if (!sniffRegexs.equals(SNIFF_REGEXS)) {
+      SNIFF_MATCHER = SniffMatcher.build(sniffRegexs);
+    }
+    SNIFF_REGEXS = sniffRegexs;
+    //代理域名有变化时重新生成PAC
+    if (wildcardsChange) {
+      PacContent.refresh();
+    }
   }
 
   private static ExtensionInfo parseExtensionDir(File extendDir, boolean isLocal) {
@@ -207,4 +266,8 @@ public class ExtensionContent {
   public static Set<String> getSniffRegexs() {
     return SNIFF_REGEXS;
   }
+
+  public static SniffMatcher getSniffMatcher() {
+    return SNIFF_MATCHER;
+  }
 }
@@ -0,0 +1,200 @@
+package org.pdown.gui.extension;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.PatternSyntaxException;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 扩展提供的正则表达式，在代理线程上匹配url。
+ * 优先使用RE2/J编译，匹配时间和url长度成线性关系；
+ * 用到了RE2/J不支持的语法(反向引用、环视等)时退回java.util.regex，并限制每次匹配读取字符的次数，超出时视为不匹配
+ */
+public class ExtensionPattern {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionPattern.class);
+
+  private static final int STEP_BUDGET = ConfigUtil.getInt("extension.regexStepBudget");
+
+  private static final LongAdder BACKTRACKING = new LongAdder();
+  private static final LongAdder EXCEEDED = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_extension_regex_backtracking_total", "counter",
+        "Extension regexes compiled with the backtracking fallback engine.", BACKTRACKING::sum);
+    MetricsUtil.register("pdown_extension_regex_budget_exceeded_total", "counter",
+        "Extension regex matches aborted by the step budget.", EXCEEDED::sum);
+  }
+
+  private final String regex;
+  //RE2/J不支持时为null
+  private final com.google.re2j.Pattern linear;
+  //java.util.regex不支持时为null
+  private final java.util.regex.Pattern backtracking;
+
+  private ExtensionPattern(String regex, com.google.re2j.Pattern linear, java.util.regex.Pattern backtracking) {
+    this.regex = regex;
+    this.linear = linear;
+    this.backtracking = backtracking;
+  }
+
+  /**
+   * 编译正则，两种引擎都不支持时抛出java.util.regex.PatternSyntaxException
+   */
+  public static ExtensionPattern compile(String regex) {
+    com.google.re2j.Pattern linear = null;
+    String unsupported = null;
+    try {
+      linear = com.google.re2j.Pattern.compile(regex);
+    } catch (com.google.re2j.PatternSyntaxException e) {
+      unsupported = e.getMessage();
+    }
+    java.util.regex.Pattern backtracking = null;
+    try {
+      backtracking = java.util.regex.Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      if (linear == null) {
+        throw e;
+      }
+    }
+    if (linear == null) {
+      BACKTRACKING.increment();
+      LOGGER.warn("Regex not supported by the linear-time engine, matching with a step budget: "
+          + regex + " (" + unsupported + ")");
+    }
+    return new ExtensionPattern(regex, linear, backtracking);
+  }
+
+  /**
+   * 编译一组正则，无效的正则记录日志后忽略
+   */
+  public static ExtensionPattern[] compile(String[] regexs) {
+    if (regexs == null) {
+      return null;
+    }
+    ExtensionPattern[] patterns = new ExtensionPattern[regexs.length];
+    int count = 0;
+    for (String regex : regexs) {
+      try {
+        patterns[count++] = compile(regex);
+      } catch (PatternSyntaxException e) {
+        count--;
+        LOGGER.warn("Invalid extension regex: " + regex, e);
+      }
+    }
+    if (count < patterns.length) {
+      ExtensionPattern[] valid = new ExtensionPattern[count];
+      System.arraycopy(patterns, 0, valid, 0, count);
+      return valid;
+    }
+    return patterns;
+  }
+
+  public static boolean matchesAny(ExtensionPattern[] patterns, String input) {
+    if (patterns != null) {
+      for (ExtensionPattern pattern : patterns) {
+        if (pattern.matches(input)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 整个输入完全匹配，和String.matches一致
+   */
+  public boolean matches(CharSequence input) {
+    if (linear != null) {
+      return linear.matcher(input).matches();
+    }
+    try {
+      return backtracking.matcher(budget(input)).matches();
+    } catch (BudgetExceededException e) {
+      exceeded();
+      return false;
+    }
+  }
+
+  /**
+   * 输入本身匹配，或者在后面追加内容后可能匹配。RE2/J不支持hitEnd，这里总是用java.util.regex，
+   * 无法判断(超出步数或者java.util.regex不支持该正则)时返回true
+   */
+  public boolean mayMatchPrefix(CharSequence input) {
+    if (backtracking == null) {
+      return true;
+    }
+    try {
+      java.util.regex.Matcher matcher = backtracking.matcher(budget(input));
+      return matcher.matches() || matcher.hitEnd();
+    } catch (BudgetExceededException e) {
+      exceeded();
+      return true;
+    }
+  }
+
+  public boolean isLinear() {
+    return linear != null;
+  }
+
+  @Override
+  public String toString() {
+    return regex;
+  }
+
+  private static CharSequence budget(CharSequence input) {
+    return new BudgetCharSequence(input, new int[]{STEP_BUDGET});
+  }
+
+  //匹配的url可能来自恶意网页，只记录次数，不逐条打印warn日志
+  private void exceeded() {
+    EXCEEDED.increment();
+    LOGGER.debug("Regex step budget exceeded: " + regex);
+  }
+
+  //java.util.regex每前进或回溯一步都要通过charAt读取字符，用读取次数作为步数
+  private static class BudgetCharSequence implements CharSequence {
+
+    private final CharSequence input;
+    private final int[] budget;
+
+    BudgetCharSequence(CharSequence input, int[] budget) {
+      this.input = input;
+      this.budget = budget;
+    }
+
+    @Override
+    public int length() {
+      return input.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (--budget[0] < 0) {
+        throw BudgetExceededException.INSTANCE;
+      }
+      return input.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new BudgetCharSequence(input.subSequence(start, end), budget);
+    }
+
+    @Override
+    public String toString() {
+      return input.toString();
+    }
+  }
+
+  private static class BudgetExceededException extends RuntimeException {
+
+    static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+    private BudgetExceededException() {
+      super("Regex step budget exceeded", null, false, false);
+    }
+  }
+}
@@ -40,7 +40,7 @@ public class HookScript {
     String matchUrl = url != null ? url.replaceAll("^(?i)(https?://)", "") : "";
     if (events != null) {
       return Arrays.stream(events)
-          .filter(e -> event.equalsIgnoreCase(e.getOn()) && (e.getMatches() == null || (Arrays.stream(e.getMatches()).anyMatch(m -> matchUrl.matches(m)))))
+          .filter(e -> event.equalsIgnoreCase(e.getOn()) && (e.getMatches() == null || ExtensionPattern.matchesAny(e.patterns, matchUrl)))
           .findFirst()
           .orElse(null);
     }
@@ -51,6 +51,8 @@ public class HookScript {
 
     private String on;
     private String[] matches;
+    //加载时编译好的matches
+    private ExtensionPattern[] patterns;
     private String method;
 
     public String getOn() {
@@ -68,6 +70,7 @@ public class HookScript {
 
     public Event setMatches(String[] matches) {
       this.matches = matches;
+      this.patterns = ExtensionPattern.compile(matches);
       return this;
     }
 
@@ -74,6 +74,7 @@ public class Meta {
       ContentUtil.save(this, getFullPath() + File.separator + CONFIG_FILE, true);
     } catch (IOException e) {
     }
+    ExtensionContent.increaseVersion();
   }
 
   public static Meta load(String path) {
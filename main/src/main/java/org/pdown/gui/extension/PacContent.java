@@ -0,0 +1,144 @@
+package org.pdown.gui.extension;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+import org.pdown.gui.DownApplication;
+
+/**
+ * 系统PAC脚本，只在代理域名或代理端口变化时重新生成，生成后的内容和hash保持不变
+ */
+public class PacContent {
+
+  //精确域名和"*."开头的后缀通配符编译成对象查表，按域名的每一级后缀查找；其它复杂通配符才使用shExpMatch
+  //回环地址只按字面判断，不调用dnsResolve
+  private static final String PAC_TEMPLATE = "var exact = {{exact}};"
+      + "var suffixes = {{suffixes}};"
+      + "var globs = [{globs}];"
+      + "function FindProxyForURL(url, host) {"
+      + "  if (host === 'localhost' || /^127\\.\\d+\\.\\d+\\.1$/.test(host)) {"
+      + "    return 'DIRECT';"
+      + "  }"
+      + "  var proxy = 'PROXY 127.0.0.1:{port};DIRECT';"
+      + "  if (exact[host] === 1) {"
+      + "    return proxy;"
+      + "  }"
+      + "  for (var i = host.indexOf('.'); i !== -1; i = host.indexOf('.', i + 1)) {"
+      + "    if (suffixes[host.substring(i)] === 1) {"
+      + "      return proxy;"
+      + "    }"
+      + "  }"
+      + "  for (var j = 0; j < globs.length; j++) {"
+      + "    if (shExpMatch(host, globs[j])) {"
+      + "      return proxy;"
+      + "    }"
+      + "  }"
+      + "  return 'DIRECT';"
+      + "}";
+
+  private static volatile Pac PAC;
+
+  /**
+   * 根据当前的代理域名和代理端口重新生成PAC
+   */
+  public synchronized static void refresh() {
+    Set<String> domains = ExtensionContent.getProxyWildCards();
+    int port = DownApplication.INSTANCE != null ? DownApplication.INSTANCE.PROXY_PORT : 0;
+    String pacContent = build(domains, port);
+    Pac current = PAC;
+    if (current == null || !current.text.equals(pacContent)) {
+      PAC = new Pac(pacContent);
+    }
+  }
+
+  /**
+   * PAC内容，返回的是只读且不需要释放的buffer
+   */
+  public static ByteBuf getContent() {
+    return get().content.duplicate();
+  }
+
+  /**
+   * PAC内容的hash，用作PAC地址的版本号和ETag
+   */
+  public static String getHash() {
+    return get().hash;
+  }
+
+  private static Pac get() {
+    Pac current = PAC;
+    if (current == null) {
+      refresh();
+      current = PAC;
+    }
+    return current;
+  }
+
+  static String build(Set<String> domains, int port) {
+    StringBuilder exact = new StringBuilder();
+    StringBuilder suffixes = new StringBuilder();
+    StringBuilder globs = new StringBuilder();
+    if (domains != null) {
+      //排序保证同样的域名集合生成的内容和hash一致
+      for (String domain : new TreeSet<>(domains)) {
+        if (isLiteral(domain)) {
+          appendItem(exact, domain, true);
+        } else if (domain.startsWith("*.") && isLiteral(domain.substring(2))) {
+          //shExpMatch中*可以匹配任意字符(包括.)，所以*.a.com等价于以.a.com结尾
+          appendItem(suffixes, domain.substring(1), true);
+        } else {
+          appendItem(globs, domain, false);
+        }
+      }
+    }
+    return PAC_TEMPLATE.replace("{exact}", exact)
+        .replace("{suffixes}", suffixes)
+        .replace("{globs}", globs)
+        .replace("{port}", port + "");
+  }
+
+  private static boolean isLiteral(String pattern) {
+    return pattern.indexOf('*') == -1 && pattern.indexOf('?') == -1 && pattern.indexOf('[') == -1;
+  }
+
+  private static void appendItem(StringBuilder builder, String value, boolean isKey) {
+    if (builder.length() != 0) {
+      builder.append(",");
+    }
+    builder.append("'").append(value.replace("\\", "\\\\").replace("'", "\\'")).append("'");
+    if (isKey) {
+      builder.append(":1");
+    }
+  }
+
+  private static class Pac {
+
+    private final String text;
+    private final ByteBuf content;
+    private final String hash;
+
+    Pac(String text) {
+      byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+      this.text = text;
+      this.content = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes).asReadOnly());
+      this.hash = hash(bytes);
+    }
+
+    private static String hash(byte[] bytes) {
+      try {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+          builder.append(String.format("%02x", digest[i]));
+        }
+        return builder.toString();
+      } catch (NoSuchAlgorithmException e) {
+        return Integer.toHexString(new String(bytes, Charset.forName("UTF-8")).hashCode());
+      }
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package org.pdown.gui.extension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 嗅探下载url匹配器，扩展刷新时生成，之后不再修改。
+ * 匹配的url和proxyee的HttpUtil.checkUrl一致：uri以/开头时为Host请求头加上uri(uri为/时只有Host)，否则为uri本身。
+ * 以固定域名开头的正则按域名建立索引，大部分请求一次哈希查找就能排除，
+ * 其它正则预先编译(见ExtensionPattern)，并提取出匹配时必须出现的字符串先做一次contains过滤
+ */
+public class SniffMatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SniffMatcher.class);
+
+  public static final SniffMatcher EMPTY = new SniffMatcher(Collections.emptyMap(), new ExtensionPattern[0], new String[0]);
+
+  //url中域名部分(第一个/或:之前)对应的正则
+  private final Map<String, ExtensionPattern[]> hostPatterns;
+  //无法按域名索引的正则
+  private final ExtensionPattern[] otherPatterns;
+  //otherPatterns中每个正则匹配时必须包含的字符串，没有时为null
+  private final String[] otherLiterals;
+
+  private SniffMatcher(Map<String, ExtensionPattern[]> hostPatterns, ExtensionPattern[] otherPatterns, String[] otherLiterals) {
+    this.hostPatterns = hostPatterns;
+    this.otherPatterns = otherPatterns;
+    this.otherLiterals = otherLiterals;
+  }
+
+  public static SniffMatcher build(Set<String> regexs) {
+    if (regexs == null || regexs.isEmpty()) {
+      return EMPTY;
+    }
+    Map<String, List<ExtensionPattern>> hostMap = new HashMap<>();
+    List<ExtensionPattern> others = new ArrayList<>();
+    List<String> literals = new ArrayList<>();
+    for (String regex : regexs) {
+      ExtensionPattern pattern;
+      try {
+        pattern = ExtensionPattern.compile(regex);
+      } catch (PatternSyntaxException e) {
+        LOGGER.warn("Invalid sniff regex: " + regex, e);
+        continue;
+      }
+      List<String> runs = literalRuns(regex);
+      String host = runs != null ? hostKey(runs) : null;
+      if (host != null) {
+        hostMap.computeIfAbsent(host, k -> new ArrayList<>()).add(pattern);
+      } else {
+        others.add(pattern);
+        literals.add(runs != null ? longest(runs) : null);
+      }
+    }
+    Map<String, ExtensionPattern[]> hostPatterns = new HashMap<>();
+    for (Map.Entry<String, List<ExtensionPattern>> entry : hostMap.entrySet()) {
+      hostPatterns.put(entry.getKey(), entry.getValue().toArray(new ExtensionPattern[0]));
+    }
+    return new SniffMatcher(hostPatterns, others.toArray(new ExtensionPattern[0]), literals.toArray(new String[0]));
+  }
+
+  /**
+   * @param host Host请求头
+   * @param uri  请求uri
+   */
+  public boolean match(String host, String uri) {
+    if (host == null || uri == null) {
+      return false;
+    }
+    ExtensionPattern[] patterns = hostPatterns.isEmpty() ? null : hostPatterns.get(urlHost(host, uri));
+    if (patterns == null && otherPatterns.length == 0) {
+      return false;
+    }
+    String url = uri.startsWith("/") ? (uri.length() > 1 ? host + uri : host) : uri;
+    if (patterns != null) {
+      for (ExtensionPattern pattern : patterns) {
+        if (pattern.matches(url)) {
+          return true;
+        }
+      }
+    }
+    for (int i = 0; i < otherPatterns.length; i++) {
+      if ((otherLiterals[i] == null || url.contains(otherLiterals[i]))
+          && otherPatterns[i].matches(url)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isEmpty() {
+    return hostPatterns.isEmpty() && otherPatterns.length == 0;
+  }
+
+  //url中第一个/或:之前的部分，Host请求头本身不包含/
+  private static String urlHost(String host, String uri) {
+    if (uri.startsWith("/")) {
+      int index = host.indexOf(':');
+      return index == -1 ? host : host.substring(0, index);
+    }
+    for (int i = 0; i < uri.length(); i++) {
+      char c = uri.charAt(i);
+      if (c == '/' || c == ':') {
+        return uri.substring(0, i);
+      }
+    }
+    return uri;
+  }
+
+  //正则以固定字符串开头并且其中包含/或:时，可以确定url的域名部分
+  private static String hostKey(List<String> runs) {
+    String prefix = runs.get(0);
+    for (int i = 0; i < prefix.length(); i++) {
+      char c = prefix.charAt(i);
+      if (c == '/' || c == ':') {
+        return prefix.substring(0, i);
+      }
+    }
+    return null;
+  }
+
+  private static String longest(List<String> runs) {
+    String longest = null;
+    for (String run : runs) {
+      if (!run.isEmpty() && (longest == null || run.length() > longest.length())) {
+        longest = run;
+      }
+    }
+    return longest;
+  }
+
+  /**
+   * 提取正则中匹配时一定会按顺序出现的固定字符串，第一个元素是正则开头的固定字符串(可能为空)。
+   * 只分析最外层，分组、字符类、转义字母都视为可变部分，遇到最外层的|、\Q或者内联标志时返回null
+   */
+  static List<String> literalRuns(String regex) {
+    List<String> runs = new ArrayList<>();
+    StringBuilder run = new StringBuilder();
+    int i = regex.startsWith("^") ? 1 : 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '\\':
+          if (i + 1 >= regex.length()) {
+            return null;
+          }
+          char next = regex.charAt(i + 1);
+          if (Character.isLetterOrDigit(next)) {
+            if (next == 'Q') {
+              return null;
+            }
+            runs.add(run.toString());
+            run.setLength(0);
+          } else {
+            run.append(next);
+          }
+          i += 2;
+          break;
+        case '*':
+        case '?':
+        case '{':
+          //前一个字符可以不出现
+          if (run.length() > 0) {
+            run.setLength(run.length() - 1);
+          }
+          runs.add(run.toString());
+          run.setLength(0);
+          i = c == '{' ? regex.indexOf('}', i) + 1 : i + 1;
+          if (i == 0) {
+            return null;
+          }
+          i = skipQuantifierMode(regex, i);
+          break;
+        case '+':
+          //前一个字符至少出现一次，之后可能重复
+          runs.add(run.toString());
+          run.setLength(0);
+          i = skipQuantifierMode(regex, i + 1);
+          break;
+        case '(':
+          if (i + 2 < regex.length() && regex.charAt(i + 1) == '?'
+              && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+            return null;
+          }
+          i = skipGroup(regex, i);
+          if (i == -1) {
+            return null;
+          }
+          runs.add(run.toString());
+          run.setLength(0);
+          break;
+        case '[':
+          i = skipClass(regex, i);
+          if (i == -1) {
+            return null;
+          }
+          runs.add(run.toString());
+          run.setLength(0);
+          break;
+        case '|':
+          return null;
+        case '.':
+        case '^':
+        case '$':
+        case ')':
+        case ']':
+        case '}':
+          runs.add(run.toString());
+          run.setLength(0);
+          i++;
+          break;
+        default:
+          run.append(c);
+          i++;
+      }
+    }
+    runs.add(run.toString());
+    return runs;
+  }
+
+  //跳过懒惰和占有量词的后缀
+  private static int skipQuantifierMode(String regex, int i) {
+    if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+      return i + 1;
+    }
+    return i;
+  }
+
+  //返回分组结束后的位置，分组内出现内联标志时也返回-1
+  private static int skipGroup(String regex, int i) {
+    int depth = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+          return -1;
+        }
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipClass(regex, i);
+        if (i == -1) {
+          return -1;
+        }
+        continue;
+      }
+      if (c == '(') {
+        if (i + 2 < regex.length() && regex.charAt(i + 1) == '?'
+            && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+          return -1;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  //返回字符类结束后的位置，支持嵌套和开头的]
+  private static int skipClass(String regex, int i) {
+    int depth = 0;
+    int start = i;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+      } else if (c == ']' && i > start + 1 && !(i == start + 2 && regex.charAt(start + 1) == '^')) {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+}
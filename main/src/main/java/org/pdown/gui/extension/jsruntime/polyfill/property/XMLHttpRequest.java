@@ -1,5 +1,15 @@
 package org.pdown.gui.extension.jsruntime.polyfill.property;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -18,6 +28,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
+import org.pdown.gui.DownApplication;
+import org.pdown.gui.http.util.LocalApiUtil;
 import org.springframework.util.StringUtils;
 
 public class XMLHttpRequest {
@@ -50,10 +62,16 @@ public class XMLHttpRequest {
     this.open(method, url);
   }
 
+  private static final long LOCAL_TIMEOUT = 60000;
+
   private static String DEFAULT_UA = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/69.0.3497.100 Safari/537.36";
 
   public void send(String data) throws IOException {
     URL u = new URL(url);
+    if (isLocalApi(u)) {
+      sendLocal(u, data);
+      return;
+    }
     HttpURLConnection connection = (HttpURLConnection) u.openConnection();
     readystatechange(1);
     connection.setRequestMethod(method.toUpperCase());
@@ -97,6 +115,39 @@ public class XMLHttpRequest {
     }
   }
 
+  //访问本机api服务器的请求直接在进程内投递
+  private static boolean isLocalApi(URL u) {
+    if (DownApplication.INSTANCE == null || !"http".equalsIgnoreCase(u.getProtocol())) {
+      return false;
+    }
+    String host = u.getHost();
+    return ("127.0.0.1".equals(host) || "localhost".equalsIgnoreCase(host))
+        && u.getPort() == DownApplication.INSTANCE.API_PORT;
+  }
+
+  private void sendLocal(URL u, String data) throws IOException {
+    readystatechange(1);
+    ByteBuf content = data != null && data.trim().length() > 0 ? Unpooled.copiedBuffer(data, CharsetUtil.UTF_8) : Unpooled.EMPTY_BUFFER;
+    String uri = StringUtils.isEmpty(u.getFile()) ? "/" : u.getFile();
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.valueOf(method.toUpperCase()), uri, content);
+    request.headers().set(HttpHeaderNames.HOST, u.getHost() + ":" + u.getPort());
+    request.headers().set(HttpHeaderNames.USER_AGENT, DEFAULT_UA);
+    customRequestHeads.entrySet().stream().forEach(entry -> request.headers().set(entry.getKey(), entry.getValue()));
+    request.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+    FullHttpResponse response = LocalApiUtil.request(request, LOCAL_TIMEOUT);
+    try {
+      int code = response.status().code();
+      response.headers().names().forEach(name -> responseHeads.put(name.toLowerCase(), String.join("; ", response.headers().getAll(name))));
+      readystatechange(2, code);
+      Charset charset = HttpUtil.getCharset(response, CharsetUtil.UTF_8);
+      readystatechange(3, code);
+      responseText = response.content().toString(charset);
+      readystatechange(4, code);
+    } finally {
+      response.release();
+    }
+  }
+
   public static void main(String[] args) throws IOException {
     URL u = new URL("http://www.baidu.com");
     Proxy proxy = new Proxy(Type.SOCKS, new InetSocketAddress("127.0.0.1", 1088));
@@ -28,6 +28,7 @@ import org.pdown.gui.content.PDownConfigContent;
 import org.pdown.gui.extension.ContentScript;
 import org.pdown.gui.extension.ExtensionContent;
 import org.pdown.gui.extension.ExtensionInfo;
+import org.pdown.gui.extension.mitm.server.PDownUpstreamPool;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -61,7 +62,8 @@ public class AjaxIntercept extends HttpProxyIntercept {
   public void afterResponse(Channel clientChannel, Channel proxyChannel, HttpResponse httpResponse, HttpProxyInterceptPipeline pipeline) throws Exception {
     if (proxyFlag) {
       httpResponse.setStatus(HttpResponseStatus.OK);
-      proxyChannel.close();
+      //目标服务器的响应内容不需要了，读完丢弃之后连接还能放回连接池
+      PDownUpstreamPool.drain(proxyChannel);
       ObjectMapper objectMapper = new ObjectMapper();
       LastHttpContent content = new DefaultLastHttpContent();
       String proxyRequestRaw = URLDecoder.decode(pipeline.getHttpRequest().headers().get(PROXY_SEND_KEY), "utf-8");
@@ -3,11 +3,12 @@ package org.pdown.gui.extension.mitm.intercept;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.monkeywie.proxyee.intercept.HttpProxyIntercept;
 import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptPipeline;
-import com.github.monkeywie.proxyee.util.HttpUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -15,17 +16,28 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import io.netty.handler.codec.http.LastHttpContent;
-import io.netty.util.ReferenceCountUtil;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.pdown.core.entity.HttpRequestInfo;
 import org.pdown.core.entity.HttpResponseInfo;
 import org.pdown.core.util.HttpDownUtil;
 import org.pdown.core.util.ProtoUtil.RequestProto;
 import org.pdown.gui.DownApplication;
 import org.pdown.gui.extension.ExtensionContent;
+import org.pdown.gui.extension.mitm.server.PDownProxyServer;
+import org.pdown.gui.extension.mitm.util.SniffResponseUtil;
+import org.pdown.gui.util.ConfigUtil;
 import org.pdown.rest.form.HttpRequestForm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,28 +46,27 @@ public class SniffIntercept extends HttpProxyIntercept {
 
   private final static Logger LOGGER = LoggerFactory.getLogger(SniffIntercept.class);
 
+  //请求体在内存中缓存的上限，超过后写入临时文件
+  private static final int MAX_MEMORY_BODY = ConfigUtil.getInt("proxy.sniff.maxMemoryBody");
+
   private boolean matchFlag = false;
 
-  private ByteBuf content;
+  //在客户端线程上写入，在目标服务器线程上读取和释放
+  private volatile BodyCapture content;
   private boolean downFlag = false;
 
   @Override
   public void beforeRequest(Channel clientChannel, HttpRequest httpRequest,
       HttpProxyInterceptPipeline pipeline) throws Exception {
-    Set<String> sniffRegexs = ExtensionContent.getSniffRegexs();
-    if (sniffRegexs == null) {
-      matchFlag = false;
-    } else {
-      matchFlag = sniffRegexs.stream().anyMatch(regex -> HttpUtil.checkUrl(httpRequest, regex));
-    }
+    matchFlag = ExtensionContent.getSniffMatcher()
+        .match(httpRequest.headers().get(HttpHeaderNames.HOST), httpRequest.uri());
     if (!matchFlag) {
       super.beforeRequest(clientChannel, httpRequest, pipeline);
       return;
     }
-    String contentLength = httpRequest.headers().get(HttpHeaderNames.CONTENT_LENGTH);
-    //缓存request content
-    if (contentLength != null) {
-      content = PooledByteBufAllocator.DEFAULT.buffer();
+    //缓存request content，确定是下载之后才取出来
+    if (HttpUtil.isContentLengthSet(httpRequest) || HttpUtil.isTransferEncodingChunked(httpRequest)) {
+      content = new BodyCapture(clientChannel);
     }
     pipeline.beforeRequest(clientChannel, HttpRequestInfo.adapter(httpRequest));
   }
@@ -67,17 +78,13 @@ public class SniffIntercept extends HttpProxyIntercept {
       super.beforeRequest(clientChannel, httpContent, pipeline);
       return;
     }
-    if (content != null) {
-      ByteBuf temp = httpContent.content().slice();
-      content.writeBytes(temp);
-      if (httpContent instanceof LastHttpContent) {
-        try {
-          byte[] contentBts = new byte[content.readableBytes()];
-          content.readBytes(contentBts);
-          ((HttpRequestInfo) pipeline.getHttpRequest()).setContent(contentBts);
-        } finally {
-          ReferenceCountUtil.release(content);
-        }
+    BodyCapture capture = content;
+    if (capture != null) {
+      try {
+        capture.add(httpContent.content());
+      } catch (IOException e) {
+        LOGGER.warn("Capture request content error", e);
+        capture.release();
       }
     }
     pipeline.beforeRequest(clientChannel, httpContent);
@@ -112,32 +119,40 @@ public class SniffIntercept extends HttpProxyIntercept {
             "------------------------------------------------" +
             httpResponse.toString() + "\n" +
             "================================================");
-        proxyChannel.close();//关闭嗅探下载连接
-        httpRequestInfo.setRequestProto(new RequestProto(pipeline.getRequestProto().getHost(), pipeline.getRequestProto().getPort(), pipeline.getRequestProto().getSsl()));
-        HttpRequestForm requestForm = HttpRequestForm.parse(httpRequestInfo);
-        HttpResponseInfo responseInfo = HttpDownUtil.getHttpResponseInfo(httpRequestInfo, null, null, (NioEventLoopGroup) clientChannel.eventLoop().parent());
-        httpResponse.headers().clear();
-        httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html");
-        httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-        String js = "<script type=\"text/javascript\">window.history.go(-1)</script>";
-        HttpContent httpContent = new DefaultLastHttpContent();
-        httpContent.content().writeBytes(js.getBytes());
-        httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpContent.content().readableBytes());
-        clientChannel.writeAndFlush(httpResponse);
-        clientChannel.writeAndFlush(httpContent);
-        clientChannel.close();
-        ObjectMapper objectMapper = new ObjectMapper();
-        String requestParam = URLEncoder.encode(objectMapper.writeValueAsString(requestForm), "utf-8");
-        String responseParam = URLEncoder.encode(objectMapper.writeValueAsString(responseInfo), "utf-8");
-        String uri = "/#/tasks?request=" + requestParam + "&response=" + responseParam;
-        DownApplication.INSTANCE.loadUri(uri, false);
+        //关闭嗅探下载连接。下载任务要等用户在页面上确认后才通过pdown-rest创建，
+        //而pdown-core的连接都由HttpDownBootstrap自己建立，没有接收已有连接的入口，
+        //所以这条连接和已收到的数据无法交给任务作为第一个分段使用
+        proxyChannel.close();
+        RequestProto requestProto = new RequestProto(pipeline.getRequestProto().getHost(), pipeline.getRequestProto().getPort(), pipeline.getRequestProto().getSsl());
+        BodyCapture capture = content;
+        CompletableFuture<byte[]> body = capture != null ? capture.toBytes() : CompletableFuture.completedFuture(null);
+        //请求体转存到了临时文件时在转存线程上读取，读完之后回到客户端线程继续
+        body.whenComplete((bytes, cause) -> clientChannel.eventLoop().execute(() -> {
+          if (capture != null) {
+            capture.release();
+          }
+          try {
+            if (cause != null) {
+              throw cause;
+            }
+            if (capture != null) {
+              httpRequestInfo.setContent(bytes);
+            }
+            httpRequestInfo.setRequestProto(requestProto);
+            takeOver(clientChannel, httpRequestInfo, httpResponse);
+          } catch (Throwable e) {
+            LOGGER.warn("Sniff download error", e);
+            clientChannel.close();
+          }
+        }));
         return;
-      } else {
-        if (httpRequestInfo.content() != null) {
-          httpRequestInfo.setContent(null);
-        }
       }
     }
+    //不是下载，缓存的请求体不再需要，100-continue之后请求体还没发完，要等最终响应
+    BodyCapture capture = content;
+    if (capture != null && httpResponse.status().codeClass() != HttpStatusClass.INFORMATIONAL) {
+      capture.release();
+    }
     super.afterResponse(clientChannel, proxyChannel, httpResponse, pipeline);
   }
 
@@ -155,6 +170,31 @@ public class SniffIntercept extends HttpProxyIntercept {
     }
   }
 
+  //把嗅探到的下载交给页面创建任务，客户端返回上一页
+  private void takeOver(Channel clientChannel, HttpRequestInfo httpRequestInfo, HttpResponse httpResponse) throws Exception {
+    HttpRequestForm requestForm = HttpRequestForm.parse(httpRequestInfo);
+    //优先使用拦截到的响应头，无法确定文件大小或者是否支持断点续传时再向服务器探测
+    HttpResponseInfo responseInfo = SniffResponseUtil.parse(httpRequestInfo, httpResponse);
+    if (responseInfo == null) {
+      responseInfo = HttpDownUtil.getHttpResponseInfo(httpRequestInfo, null, null, PDownProxyServer.getProxyGroup());
+    }
+    httpResponse.headers().clear();
+    httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html");
+    httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+    String js = "<script type=\"text/javascript\">window.history.go(-1)</script>";
+    HttpContent httpContent = new DefaultLastHttpContent();
+    httpContent.content().writeBytes(js.getBytes());
+    httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpContent.content().readableBytes());
+    clientChannel.writeAndFlush(httpResponse);
+    clientChannel.writeAndFlush(httpContent);
+    clientChannel.close();
+    ObjectMapper objectMapper = new ObjectMapper();
+    String requestParam = URLEncoder.encode(objectMapper.writeValueAsString(requestForm), "utf-8");
+    String responseParam = URLEncoder.encode(objectMapper.writeValueAsString(responseInfo), "utf-8");
+    String uri = "/#/tasks?request=" + requestParam + "&response=" + responseParam;
+    DownApplication.INSTANCE.loadUri(uri, false);
+  }
+
   //https://chromium.googlesource.com/chromium/src/+/master/net/base/mime_util.cc
   private static final String[] CONTENT_TYPES = {
       "application/javascript",
@@ -208,4 +248,192 @@ public class SniffIntercept extends HttpProxyIntercept {
     }
     return true;
   }
+
+  /**
+   * 请求体缓存，引用请求内容的切片而不复制，内存占用超过MAX_MEMORY_BODY后转存到临时文件，
+   * 客户端连接关闭时自动释放。缓存在客户端线程，取出和释放可能在目标服务器线程，这部分都加锁；
+   * 临时文件的创建、写入、读取和删除都交给转存线程按提交顺序执行，不阻塞事件循环。
+   * 释放之后的写入直接忽略，重复释放没有影响
+   */
+  private static class BodyCapture {
+
+    private static final ExecutorService SPILL_EXECUTOR = Executors.newSingleThreadExecutor(
+        new DefaultThreadFactory("sniff-spill", true));
+
+    private final Channel clientChannel;
+    private final ChannelFutureListener closeListener = future -> release();
+    private CompositeByteBuf memory = PooledByteBufAllocator.DEFAULT.compositeBuffer(Integer.MAX_VALUE);
+    //切片会让整个父缓冲区(解码器的累积缓冲区或者ssl缓冲区)无法回收，按父缓冲区的容量计算内存占用
+    private long memoryCost;
+    private boolean spilled;
+    //已提交给转存线程但还没写入文件的内存占用，超过上限时暂停读取客户端，回落到一半以下再恢复
+    private long pending;
+    private boolean paused;
+    private long size;
+    private boolean released;
+    //以下字段只在转存线程上访问
+    private Path file;
+    private FileChannel fileChannel;
+    private long filePosition;
+    private IOException error;
+
+    BodyCapture(Channel clientChannel) {
+      this.clientChannel = clientChannel;
+      clientChannel.closeFuture().addListener(closeListener);
+    }
+
+    synchronized void add(ByteBuf buf) throws IOException {
+      if (released || !buf.isReadable()) {
+        return;
+      }
+      size += buf.readableBytes();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException("Request content too large: " + size);
+      }
+      ByteBuf component = buf.retainedSlice();
+      long cost = parentCapacity(buf);
+      //切片只占父缓冲区的一小部分时复制出来，避免引用整个父缓冲区
+      if (cost > buf.readableBytes() * 2L) {
+        component.release();
+        component = buf.copy();
+        cost = component.capacity();
+      }
+      if (!spilled) {
+        if (memoryCost + cost <= MAX_MEMORY_BODY) {
+          memory.addComponent(true, component);
+          memoryCost += cost;
+          return;
+        }
+        //内存中已有的内容先交给转存线程写入
+        spilled = true;
+        spill(memory, memoryCost);
+        memory = null;
+        memoryCost = 0;
+      }
+      spill(component, cost);
+      if (pending > MAX_MEMORY_BODY && clientChannel.config().isAutoRead()) {
+        paused = true;
+        clientChannel.config().setAutoRead(false);
+      }
+    }
+
+    /**
+     * 取出缓存的请求体，已经释放时为null。转存到了临时文件时等之前的写入完成后在转存线程上读取
+     */
+    synchronized CompletableFuture<byte[]> toBytes() {
+      if (released) {
+        return CompletableFuture.completedFuture(null);
+      }
+      if (!spilled) {
+        return CompletableFuture.completedFuture(ByteBufUtil.getBytes(memory));
+      }
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      SPILL_EXECUTOR.execute(() -> {
+        try {
+          if (error != null) {
+            throw error;
+          }
+          if (isReleased()) {
+            future.complete(null);
+            return;
+          }
+          fileChannel.close();
+          fileChannel = null;
+          future.complete(Files.readAllBytes(file));
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+      return future;
+    }
+
+    synchronized void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      clientChannel.closeFuture().removeListener(closeListener);
+      if (memory != null) {
+        memory.release();
+        memory = null;
+      }
+      //排在已提交的写入之后删除临时文件
+      if (spilled) {
+        SPILL_EXECUTOR.execute(this::deleteFile);
+      }
+    }
+
+    private synchronized boolean isReleased() {
+      return released;
+    }
+
+    //在转存线程上写入，写完后释放缓冲区
+    private void spill(ByteBuf buf, long cost) {
+      pending += cost;
+      SPILL_EXECUTOR.execute(() -> {
+        try {
+          if (error == null && !isReleased()) {
+            write(buf);
+          }
+        } catch (IOException e) {
+          error = e;
+          LOGGER.warn("Spill request content error", e);
+        } finally {
+          buf.release();
+          drained(cost);
+        }
+      });
+    }
+
+    private void drained(long cost) {
+      synchronized (this) {
+        pending -= cost;
+        if (!paused || pending > MAX_MEMORY_BODY / 2) {
+          return;
+        }
+        paused = false;
+      }
+      clientChannel.eventLoop().execute(() -> clientChannel.config().setAutoRead(true));
+    }
+
+    private void write(ByteBuf buf) throws IOException {
+      if (fileChannel == null) {
+        file = Files.createTempFile("pdown-sniff", ".body");
+        fileChannel = FileChannel.open(file, StandardOpenOption.WRITE);
+      }
+      int index = buf.readerIndex();
+      int end = buf.writerIndex();
+      while (index < end) {
+        int written = buf.getBytes(index, fileChannel, filePosition, end - index);
+        index += written;
+        filePosition += written;
+      }
+    }
+
+    private void deleteFile() {
+      if (fileChannel != null) {
+        try {
+          fileChannel.close();
+        } catch (IOException e) {
+        }
+        fileChannel = null;
+      }
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          LOGGER.warn("Delete sniff temp file error", e);
+        }
+        file = null;
+      }
+    }
+
+    private static long parentCapacity(ByteBuf buf) {
+      ByteBuf parent = buf;
+      while (parent.unwrap() != null) {
+        parent = parent.unwrap();
+      }
+      return Math.max(parent.capacity(), buf.readableBytes());
+    }
+  }
 }
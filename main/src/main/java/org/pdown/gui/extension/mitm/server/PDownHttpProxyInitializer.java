@@ -0,0 +1,37 @@
+package org.pdown.gui.extension.mitm.server;
+
+import com.github.monkeywie.proxyee.util.ProtoUtil.RequestProto;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.proxy.ProxyHandler;
+
+/**
+ * 需要解密的请求连接目标服务器时使用，响应经过拦截器处理后再返回给客户端
+ */
+public class PDownHttpProxyInitializer extends ChannelInitializer {
+
+  private Channel clientChannel;
+  private RequestProto requestProto;
+  private ProxyHandler proxyHandler;
+
+  public PDownHttpProxyInitializer(Channel clientChannel, RequestProto requestProto, ProxyHandler proxyHandler) {
+    this.clientChannel = clientChannel;
+    this.requestProto = requestProto;
+    this.proxyHandler = proxyHandler;
+  }
+
+  @Override
+  protected void initChannel(Channel ch) throws Exception {
+    if (proxyHandler != null) {
+      ch.pipeline().addLast(proxyHandler);
+    }
+    if (requestProto.getSsl()) {
+      PDownProxyServerHandle serverHandle = (PDownProxyServerHandle) clientChannel.pipeline().get("serverHandle");
+      ch.pipeline().addLast(serverHandle.getServerConfig().getClientSslCtx()
+          .newHandler(ch.alloc(), requestProto.getHost(), requestProto.getPort()));
+    }
+    ch.pipeline().addLast("httpCodec", new HttpClientCodec());
+    ch.pipeline().addLast("proxyClientHandle", new PDownProxyClientHandle(clientChannel));
+  }
+}
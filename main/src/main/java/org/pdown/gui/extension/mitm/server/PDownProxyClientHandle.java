@@ -0,0 +1,88 @@
+package org.pdown.gui.extension.mitm.server;
+
+import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptPipeline;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import org.pdown.gui.extension.mitm.util.FlowControlUtil;
+
+/**
+ * 目标服务器的响应交给客户端连接上的拦截器处理
+ */
+public class PDownProxyClientHandle extends ChannelInboundHandlerAdapter {
+
+  private Channel clientChannel;
+
+  public PDownProxyClientHandle(Channel clientChannel) {
+    this.clientChannel = clientChannel;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    //客户端channel已关闭则不转发了
+    if (!clientChannel.isOpen()) {
+      ReferenceCountUtil.release(msg);
+      return;
+    }
+    Channel proxyChannel = ctx.channel();
+    if (msg instanceof HttpResponse) {
+      HttpResponse httpResponse = (HttpResponse) msg;
+      //不支持keep-alive或者不是最终响应(例如websocket升级)的连接不能放回连接池
+      if (!HttpUtil.isKeepAlive(httpResponse) || httpResponse.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+        PDownUpstreamPool.markBroken(proxyChannel);
+      }
+    }
+    if (msg instanceof LastHttpContent) {
+      PDownUpstreamPool.responseDone(proxyChannel);
+    }
+    //拦截器不需要的响应内容直接丢弃
+    if (msg instanceof HttpContent && PDownUpstreamPool.isDraining(proxyChannel)) {
+      if (msg instanceof LastHttpContent) {
+        PDownUpstreamPool.drainDone(proxyChannel);
+      }
+      ReferenceCountUtil.release(msg);
+      return;
+    }
+    HttpProxyInterceptPipeline interceptPipeline = getServerHandle().getInterceptPipeline();
+    if (msg instanceof HttpResponse) {
+      interceptPipeline.afterResponse(clientChannel, ctx.channel(), (HttpResponse) msg);
+    } else if (msg instanceof HttpContent) {
+      interceptPipeline.afterResponse(clientChannel, ctx.channel(), (HttpContent) msg);
+    } else {
+      clientChannel.writeAndFlush(msg);
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    //目标服务器接收不过来时暂停读取客户端
+    FlowControlUtil.writabilityChanged(ctx.channel(), clientChannel);
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
+    ctx.channel().close();
+    clientChannel.close();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    ctx.channel().close();
+    clientChannel.close();
+    PDownProxyServerHandle serverHandle = getServerHandle();
+    if (serverHandle != null) {
+      serverHandle.getExceptionHandle().afterCatch(clientChannel, ctx.channel(), cause);
+    }
+  }
+
+  private PDownProxyServerHandle getServerHandle() {
+    return (PDownProxyServerHandle) clientChannel.pipeline().get("serverHandle");
+  }
+}
@@ -1,11 +1,33 @@
 package org.pdown.gui.extension.mitm.server;
 
+import com.github.monkeywie.proxyee.crt.CertUtil;
 import com.github.monkeywie.proxyee.exception.HttpProxyExceptionHandle;
 import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptInitializer;
 import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptPipeline;
-import com.github.monkeywie.proxyee.server.HttpProxyServer;
+import com.github.monkeywie.proxyee.proxy.ProxyConfig;
+import com.github.monkeywie.proxyee.server.HttpProxyCACertFactory;
 import com.github.monkeywie.proxyee.server.HttpProxyServerConfig;
+import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.pdown.gui.content.PDownConfigContent;
 import org.pdown.gui.entity.PDownConfigInfo;
 import org.pdown.gui.extension.mitm.intercept.AjaxIntercept;
@@ -13,57 +35,207 @@ import org.pdown.gui.extension.mitm.intercept.CookieIntercept;
 import org.pdown.gui.extension.mitm.intercept.ScriptIntercept;
 import org.pdown.gui.extension.mitm.intercept.SniffIntercept;
 import org.pdown.gui.extension.mitm.ssl.PDownCACertFactory;
+import org.pdown.gui.extension.mitm.ssl.PDownCertPool;
+import org.pdown.gui.extension.mitm.ssl.PDownKeyPairPool;
+import org.pdown.gui.extension.mitm.util.ExtensionSslUtil;
+import org.pdown.gui.extension.mitm.util.FlowControlUtil;
+import org.pdown.gui.extension.mitm.util.SpliceUtil;
+import org.pdown.gui.util.TransportUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * MITM代理服务器，自己创建ServerBootstrap来挂载PDownProxyServerHandle，
+ * 这样boss/worker线程池可以使用epoll或者和api服务器共用，
+ * 只有扩展需要处理的域名才做ssl解密，其它域名直接走隧道转发。
+ * 前置代理、线程数和CA证书变化时只替换新连接使用的配置，不需要重启
+ */
 public class PDownProxyServer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PDownProxyServer.class);
 
-  private static volatile HttpProxyServer httpProxyServer;
+  private static volatile Channel serverChannel;
+  //新建连接时读取的配置，刷新时整体替换，监听端口和已建立的连接不受影响
+  private static volatile HttpProxyServerConfig serverConfig;
+  //前置代理配置，每次连接目标服务器时读取
+  private static final AtomicReference<ProxyConfig> PROXY_CONFIG = new AtomicReference<>();
+  //每个proxy-group线程池上的目标服务器连接，线程池被替换后等连接都关闭了再关闭线程池
+  private static final Map<EventLoopGroup, ChannelGroup> UPSTREAM_CHANNELS = new ConcurrentHashMap<>();
   public static volatile boolean isStart = false;
 
   public static void start(int port) {
-    HttpProxyServerConfig config = new HttpProxyServerConfig();
-    //处理ssl
-    config.setHandleSsl(true);
-    //线程池数量都设置为1
-    config.setBossGroupThreads(1);
-    config.setWorkerGroupThreads(1);
-    config.setProxyGroupThreads(1);
-    httpProxyServer = new HttpProxyServer()
-        .serverConfig(config)
-        .proxyConfig(PDownConfigInfo.convert(PDownConfigContent.getInstance().get().getProxyConfig()))
-        .caCertFactory(new PDownCACertFactory())
-        .proxyInterceptInitializer(new HttpProxyInterceptInitializer() {
-          @Override
-          public void init(HttpProxyInterceptPipeline pipeline) {
-            pipeline.addLast(new CookieIntercept());
-            pipeline.addLast(new AjaxIntercept());
-            pipeline.addLast(new ScriptIntercept());
-            pipeline.addLast(new SniffIntercept());
-          }
-        })
-        .httpProxyExceptionHandle(new HttpProxyExceptionHandle() {
-          @Override
-          public void beforeCatch(Channel clientChannel, Throwable cause) throws Exception {
-            LOGGER.warn("beforeCatch", cause);
-          }
+    HttpProxyServerConfig config = buildServerConfig(null, true);
+    serverConfig = config;
+    PROXY_CONFIG.set(PDownConfigInfo.convert(PDownConfigContent.getInstance().get().getProxyConfig()));
+    HttpProxyInterceptInitializer interceptInitializer = new HttpProxyInterceptInitializer() {
+      @Override
+      public void init(HttpProxyInterceptPipeline pipeline) {
+        pipeline.addLast(new CookieIntercept());
+        pipeline.addLast(new AjaxIntercept());
+        pipeline.addLast(new ScriptIntercept());
+        pipeline.addLast(new SniffIntercept());
+      }
+    };
+    HttpProxyExceptionHandle exceptionHandle = new HttpProxyExceptionHandle() {
+      @Override
+      public void beforeCatch(Channel clientChannel, Throwable cause) throws Exception {
+        LOGGER.warn("beforeCatch", cause);
+      }
 
-          @Override
-          public void afterCatch(Channel clientChannel, Channel proxyChannel, Throwable cause) throws Exception {
-            LOGGER.warn("afterCatch", cause);
-          }
-        });
+      @Override
+      public void afterCatch(Channel clientChannel, Channel proxyChannel, Throwable cause) throws Exception {
+        LOGGER.warn("afterCatch", cause);
+      }
+    };
+    EventLoopGroup bossGroup = TransportUtil.bossGroup(TransportUtil.proxyBossThreads(), "proxy-boss");
+    EventLoopGroup workerGroup = TransportUtil.workerGroup(TransportUtil.proxyWorkerThreads(), "proxy-worker");
     isStart = true;
-    httpProxyServer.start(port);
+    try {
+      ServerBootstrap bootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
+          .channel(TransportUtil.serverChannelClass())
+          .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, FlowControlUtil.getWaterMark())
+          .childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+              FlowControlUtil.track(ch);
+              ch.pipeline().addLast("httpCodec", new HttpServerCodec());
+              ch.pipeline().addLast("serverHandle",
+                  new PDownProxyServerHandle(serverConfig, interceptInitializer, PROXY_CONFIG, exceptionHandle));
+            }
+          });
+      if (workerGroup instanceof EpollEventLoopGroup && SpliceUtil.isEnabled()) {
+        //隧道转发使用splice，要求水平触发，epoll模式只能在连接注册之前设置
+        bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+      }
+      Channel channel = bootstrap.bind(port).sync().channel();
+      serverChannel = channel;
+      channel.closeFuture().sync();
+    } catch (Exception e) {
+      LOGGER.error("Proxy server start error", e);
+    } finally {
+      TransportUtil.shutdown(bossGroup);
+      TransportUtil.shutdown(workerGroup);
+      HttpProxyServerConfig current = serverConfig;
+      serverConfig = null;
+      UPSTREAM_CHANNELS.remove(current.getProxyLoopGroup());
+      current.getProxyLoopGroup().shutdownGracefully();
+    }
   }
 
   public static void close() {
-    if (httpProxyServer != null) {
-      httpProxyServer.close();
+    Channel channel = serverChannel;
+    if (channel != null) {
+      channel.close().syncUninterruptibly();
     }
     isStart = false;
   }
 
+  /**
+   * 替换前置代理，之后新建的目标服务器连接生效，已经建立的隧道继续使用原来的连接直到关闭
+   */
+  public static void setProxyConfig(ProxyConfig proxyConfig) {
+    PROXY_CONFIG.set(proxyConfig);
+    //连接池中的空闲连接是通过旧的前置代理建立的
+    PDownUpstreamPool.clear();
+  }
+
+  /**
+   * 重新生成新连接使用的配置，不需要重启代理服务器
+   *
+   * @param reloadSsl CA证书有变化时重新加载
+   */
+  public static synchronized void refresh(boolean reloadSsl) {
+    HttpProxyServerConfig current = serverConfig;
+    if (current == null) {
+      return;
+    }
+    boolean groupChange = ((NioEventLoopGroup) current.getProxyLoopGroup()).executorCount() != TransportUtil.proxyGroupThreads();
+    if (!reloadSsl && !groupChange) {
+      return;
+    }
+    serverConfig = buildServerConfig(current, reloadSsl);
+    if (groupChange) {
+      retire(current.getProxyLoopGroup());
+    }
+  }
+
+  /**
+   * 代理服务器用来连接目标服务器的线程池
+   */
+  public static NioEventLoopGroup getProxyGroup() {
+    HttpProxyServerConfig current = serverConfig;
+    return current != null ? (NioEventLoopGroup) current.getProxyLoopGroup() : null;
+  }
+
+  /**
+   * 记录目标服务器连接，用来判断被替换的线程池什么时候可以关闭
+   */
+  static void trackUpstream(Channel channel) {
+    ChannelGroup channels = UPSTREAM_CHANNELS.get(channel.eventLoop().parent());
+    if (channels != null) {
+      channels.add(channel);
+    }
+  }
+
+  private static HttpProxyServerConfig buildServerConfig(HttpProxyServerConfig current, boolean reloadSsl) {
+    HttpProxyServerConfig config = new HttpProxyServerConfig();
+    //处理ssl
+    config.setHandleSsl(true);
+    if (current == null || reloadSsl) {
+      initSsl(config, new PDownCACertFactory());
+    } else {
+      config.setHandleSsl(current.isHandleSsl());
+      config.setClientSslCtx(current.getClientSslCtx());
+      config.setIssuer(current.getIssuer());
+      config.setCaNotBefore(current.getCaNotBefore());
+      config.setCaNotAfter(current.getCaNotAfter());
+      config.setCaPriKey(current.getCaPriKey());
+    }
+    if (current != null && ((NioEventLoopGroup) current.getProxyLoopGroup()).executorCount() == TransportUtil.proxyGroupThreads()) {
+      config.setProxyLoopGroup(current.getProxyLoopGroup());
+    } else {
+      //嗅探下载时pdown-core使用这个线程池发请求，写死了NioSocketChannel，所以只能用nio
+      NioEventLoopGroup proxyGroup = new NioEventLoopGroup(TransportUtil.proxyGroupThreads(), new DefaultThreadFactory("proxy-group"));
+      UPSTREAM_CHANNELS.put(proxyGroup, new DefaultChannelGroup(GlobalEventExecutor.INSTANCE));
+      config.setProxyLoopGroup(proxyGroup);
+    }
+    return config;
+  }
+
+  //被替换的线程池不再接收新连接，定时检查上面的连接都关闭后再关闭线程池
+  private static void retire(EventLoopGroup proxyGroup) {
+    GlobalEventExecutor.INSTANCE.schedule(() -> {
+      ChannelGroup channels = UPSTREAM_CHANNELS.get(proxyGroup);
+      if (channels == null || channels.isEmpty()) {
+        UPSTREAM_CHANNELS.remove(proxyGroup);
+        proxyGroup.shutdownGracefully();
+      } else {
+        retire(proxyGroup);
+      }
+    }, 10, TimeUnit.SECONDS);
+  }
+
+  //与proxyee HttpProxyServer初始化ssl的逻辑一致，初始化失败时不处理ssl
+  private static void initSsl(HttpProxyServerConfig config, HttpProxyCACertFactory caCertFactory) {
+    try {
+      config.setClientSslCtx(SslContextBuilder.forClient()
+          .sslProvider(ExtensionSslUtil.getProvider())
+          .trustManager(InsecureTrustManagerFactory.INSTANCE)
+          .build());
+      X509Certificate caCert = caCertFactory.getCACert();
+      //读取CA证书使用者信息
+      config.setIssuer(CertUtil.getSubject(caCert));
+      //读取CA证书有效时段(server证书有效期超出CA证书的，在手机上会提示证书不安全)
+      config.setCaNotBefore(caCert.getNotBefore());
+      config.setCaNotAfter(caCert.getNotAfter());
+      //CA私钥用于给动态生成的网站SSL证书签证
+      config.setCaPriKey(caCertFactory.getCAPriKey());
+      PDownCertPool.init(caCert);
+      //网站SSL证书的公私钥由后台线程预先生成，不再在启动时生成一对共用
+      PDownKeyPairPool.start();
+    } catch (Exception e) {
+      LOGGER.error("Init proxy server ssl error", e);
+      config.setHandleSsl(false);
+    }
+  }
 }
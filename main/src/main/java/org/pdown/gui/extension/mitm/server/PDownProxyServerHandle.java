@@ -0,0 +1,333 @@
+package org.pdown.gui.extension.mitm.server;
+
+import com.github.monkeywie.proxyee.exception.HttpProxyExceptionHandle;
+import com.github.monkeywie.proxyee.intercept.HttpProxyIntercept;
+import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptInitializer;
+import com.github.monkeywie.proxyee.intercept.HttpProxyInterceptPipeline;
+import com.github.monkeywie.proxyee.proxy.ProxyConfig;
+import com.github.monkeywie.proxyee.proxy.ProxyHandleFactory;
+import com.github.monkeywie.proxyee.server.HttpProxyServerConfig;
+import com.github.monkeywie.proxyee.util.ProtoUtil;
+import com.github.monkeywie.proxyee.util.ProtoUtil.RequestProto;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.proxy.ProxyHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.resolver.NoopAddressResolverGroup;
+import io.netty.util.ReferenceCountUtil;
+import java.net.URL;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.pdown.gui.extension.mitm.ssl.PDownCertPool;
+import org.pdown.gui.extension.mitm.util.ExtensionHostUtil;
+import org.pdown.gui.extension.mitm.util.ExtensionSslUtil;
+import org.pdown.gui.extension.mitm.util.FlowControlUtil;
+import org.pdown.gui.extension.mitm.util.SpliceUtil;
+
+/**
+ * 基于proxyee的HttpProxyServerHandle，在CONNECT时判断目标域名是否需要扩展处理，
+ * 不需要的直接转发原始字节，不做ssl解密也不经过拦截器
+ */
+public class PDownProxyServerHandle extends ChannelInboundHandlerAdapter {
+
+  public static final HttpResponseStatus SUCCESS = new HttpResponseStatus(200, "Connection established");
+
+  private ChannelFuture cf;
+  private String host;
+  private int port;
+  private boolean isSsl = false;
+  //是否为不解密的隧道
+  private boolean isTunnel = false;
+  private int status = 0;
+  private HttpProxyServerConfig serverConfig;
+  private AtomicReference<ProxyConfig> proxyConfigRef;
+  private HttpProxyInterceptInitializer interceptInitializer;
+  private HttpProxyInterceptPipeline interceptPipeline;
+  private HttpProxyExceptionHandle exceptionHandle;
+  private List requestList;
+  private boolean isConnect;
+  //需要解密的请求对应的连接池key，隧道连接不放回连接池
+  private String upstreamKey;
+
+  public PDownProxyServerHandle(HttpProxyServerConfig serverConfig,
+      HttpProxyInterceptInitializer interceptInitializer,
+      AtomicReference<ProxyConfig> proxyConfigRef, HttpProxyExceptionHandle exceptionHandle) {
+    this.serverConfig = serverConfig;
+    this.proxyConfigRef = proxyConfigRef;
+    this.interceptInitializer = interceptInitializer;
+    this.exceptionHandle = exceptionHandle;
+  }
+
+  public HttpProxyServerConfig getServerConfig() {
+    return serverConfig;
+  }
+
+  public HttpProxyInterceptPipeline getInterceptPipeline() {
+    return interceptPipeline;
+  }
+
+  public HttpProxyExceptionHandle getExceptionHandle() {
+    return exceptionHandle;
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+    if (msg instanceof HttpRequest) {
+      HttpRequest request = (HttpRequest) msg;
+      //第一次建立连接取得host和端口号和处理代理握手
+      if (status == 0) {
+        RequestProto requestProto = ProtoUtil.getRequestProto(request);
+        if (requestProto == null) { //bad request
+          ReferenceCountUtil.release(msg);
+          ctx.channel().close();
+          return;
+        }
+        status = 1;
+        this.host = requestProto.getHost();
+        this.port = requestProto.getPort();
+        if (HttpMethod.CONNECT.equals(request.method())) {//建立代理握手
+          status = 2;
+          //没有扩展关心的域名不解密，直接建立隧道
+          isTunnel = !serverConfig.isHandleSsl() || !ExtensionHostUtil.needIntercept(host, port);
+          HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, SUCCESS);
+          ctx.writeAndFlush(response);
+          ctx.channel().pipeline().remove("httpCodec");
+          ReferenceCountUtil.release(msg);
+          return;
+        }
+      }
+      interceptPipeline = buildPipeline();
+      interceptPipeline.setRequestProto(new RequestProto(host, port, isSsl));
+      //代理请求的uri是完整的url，转发时只保留path
+      if (request.uri().indexOf("/") != 0) {
+        URL url = new URL(request.uri());
+        request.setUri(url.getFile());
+      }
+      interceptPipeline.beforeRequest(ctx.channel(), request);
+    } else if (msg instanceof HttpContent) {
+      if (status != 2) {
+        interceptPipeline.beforeRequest(ctx.channel(), (HttpContent) msg);
+      } else {
+        ReferenceCountUtil.release(msg);
+        status = 1;
+      }
+    } else { //ssl和websocket的握手处理
+      if (!isTunnel && serverConfig.isHandleSsl()) {
+        ByteBuf byteBuf = (ByteBuf) msg;
+        if (byteBuf.getByte(0) == 22) {//ssl握手
+          isSsl = true;
+          SslContext sslCtx = PDownCertPool.getSslContext(host, serverConfig);
+          ctx.pipeline().addFirst("httpCodec", new HttpServerCodec());
+          SslHandler sslHandler = sslCtx.newHandler(ctx.alloc());
+          ExtensionSslUtil.watch(sslHandler);
+          ctx.pipeline().addFirst("sslHandle", sslHandler);
+          //重新过一遍pipeline，拿到解密后的的http报文
+          ctx.pipeline().fireChannelRead(msg);
+          return;
+        }
+      }
+      handleProxyData(ctx.channel(), msg, false);
+    }
+  }
+
+  @Override
+  public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
+    if (cf != null) {
+      boolean connected;
+      synchronized (requestList) {
+        connected = isConnect;
+      }
+      //客户端断开后目标服务器的连接还可以给其它客户端连接使用
+      if (upstreamKey != null && connected) {
+        PDownUpstreamPool.release(upstreamKey, cf.channel());
+      } else {
+        cf.channel().close();
+      }
+    }
+    ctx.channel().close();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    if (cf != null) {
+      cf.channel().close();
+    }
+    ctx.channel().close();
+    exceptionHandle.beforeCatch(ctx.channel(), cause);
+  }
+
+  private void handleProxyData(Channel channel, Object msg, boolean isHttp) throws Exception {
+    if (cf == null) {
+      //connection异常 还有HttpContent进来，不转发
+      if (isHttp && !(msg instanceof HttpRequest)) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+      RequestProto requestProto;
+      if (!isHttp) {
+        requestProto = new RequestProto(host, port, isSsl);
+      } else {
+        requestProto = interceptPipeline.getRequestProto();
+        HttpRequest httpRequest = (HttpRequest) msg;
+        //拦截器修改了请求的目标时同步更新Host请求头
+        RequestProto newRP = ProtoUtil.getRequestProto(httpRequest);
+        if (!newRP.equals(requestProto)) {
+          if ((requestProto.getSsl() && requestProto.getPort() == 443)
+              || (!requestProto.getSsl() && requestProto.getPort() == 80)) {
+            httpRequest.headers().set(HttpHeaderNames.HOST, requestProto.getHost());
+          } else {
+            httpRequest.headers().set(HttpHeaderNames.HOST, requestProto.getHost() + ":" + requestProto.getPort());
+          }
+        }
+      }
+      requestList = new LinkedList();
+      //前置代理可能随时被替换，每次新建连接时读取
+      ProxyConfig proxyConfig = proxyConfigRef.get();
+      Channel pooledChannel = null;
+      //不解密的隧道在linux下使用epoll splice转发
+      boolean splice = !isHttp && SpliceUtil.isSupported(channel, proxyConfig);
+      if (isHttp) {
+        upstreamKey = PDownUpstreamPool.key(requestProto.getSsl(), requestProto.getHost(), requestProto.getPort(), proxyConfig);
+        pooledChannel = PDownUpstreamPool.acquire(upstreamKey);
+      }
+      if (pooledChannel != null) {
+        //复用连接池中的连接，响应改为交给当前客户端连接处理
+        pooledChannel.pipeline().replace("proxyClientHandle", "proxyClientHandle", new PDownProxyClientHandle(channel));
+        cf = pooledChannel.newSucceededFuture();
+      } else {
+        ProxyHandler proxyHandler = ProxyHandleFactory.build(proxyConfig);
+        ChannelInitializer channelInitializer =
+            isHttp ? new PDownHttpProxyInitializer(channel, requestProto, proxyHandler)
+                : new PDownTunnelProxyInitializer(channel, proxyHandler);
+        Bootstrap bootstrap = new Bootstrap();
+        if (splice) {
+          //splice要求两个连接在同一个EventLoop上，连接建立并写完已读到的数据之前先暂停读取客户端
+          channel.config().setAutoRead(false);
+          bootstrap.group(channel.eventLoop())
+              .channel(EpollSocketChannel.class)
+              .option(ChannelOption.AUTO_READ, false)
+              .option(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED)
+              .option(ChannelOption.WRITE_BUFFER_WATER_MARK, FlowControlUtil.getWaterMark())
+              .handler(channelInitializer);
+        } else {
+          //嗅探下载时pdown-core用同一个线程池发请求，只支持nio
+          bootstrap.group(serverConfig.getProxyLoopGroup())
+              .channel(NioSocketChannel.class)
+              .option(ChannelOption.WRITE_BUFFER_WATER_MARK, FlowControlUtil.getWaterMark())
+              .handler(channelInitializer);
+        }
+        if (proxyConfig != null) {
+          //代理服务器解析DNS和连接
+          bootstrap.resolver(NoopAddressResolverGroup.INSTANCE);
+        }
+        cf = bootstrap.connect(requestProto.getHost(), requestProto.getPort());
+        PDownProxyServer.trackUpstream(cf.channel());
+        FlowControlUtil.track(cf.channel());
+      }
+      cf.addListener((ChannelFutureListener) future -> {
+        if (future.isSuccess()) {
+          writeProxyData(future.channel(), msg);
+          synchronized (requestList) {
+            requestList.forEach(obj -> writeProxyData(future.channel(), obj));
+            requestList.clear();
+            isConnect = true;
+          }
+          if (splice) {
+            SpliceUtil.splice(channel, future.channel());
+          }
+        } else {
+          ReferenceCountUtil.release(msg);
+          synchronized (requestList) {
+            requestList.forEach(obj -> ReferenceCountUtil.release(obj));
+            requestList.clear();
+          }
+          exceptionHandle.beforeCatch(channel, future.cause());
+          future.channel().close();
+          channel.close();
+        }
+      });
+    } else {
+      synchronized (requestList) {
+        if (isConnect) {
+          writeProxyData(cf.channel(), msg);
+        } else {
+          requestList.add(msg);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    //客户端接收不过来时暂停读取目标服务器
+    FlowControlUtil.writabilityChanged(ctx.channel(), cf != null ? cf.channel() : null);
+    super.channelWritabilityChanged(ctx);
+  }
+
+  private void writeProxyData(Channel proxyChannel, Object msg) {
+    if (msg instanceof HttpRequest) {
+      PDownUpstreamPool.requestSent(proxyChannel);
+    }
+    proxyChannel.writeAndFlush(msg);
+  }
+
+  private HttpProxyInterceptPipeline buildPipeline() {
+    HttpProxyInterceptPipeline interceptPipeline = new HttpProxyInterceptPipeline(
+        new HttpProxyIntercept() {
+          @Override
+          public void beforeRequest(Channel clientChannel, HttpRequest httpRequest,
+              HttpProxyInterceptPipeline pipeline) throws Exception {
+            handleProxyData(clientChannel, httpRequest, true);
+          }
+
+          @Override
+          public void beforeRequest(Channel clientChannel, HttpContent httpContent,
+              HttpProxyInterceptPipeline pipeline) throws Exception {
+            handleProxyData(clientChannel, httpContent, true);
+          }
+
+          @Override
+          public void afterResponse(Channel clientChannel, Channel proxyChannel,
+              HttpResponse httpResponse, HttpProxyInterceptPipeline pipeline) throws Exception {
+            clientChannel.writeAndFlush(httpResponse);
+            if (HttpHeaderValues.WEBSOCKET.toString()
+                .equals(httpResponse.headers().get(HttpHeaderNames.UPGRADE))) {
+              //websocket转发原始报文
+              proxyChannel.pipeline().remove("httpCodec");
+              clientChannel.pipeline().remove("httpCodec");
+            }
+          }
+
+          @Override
+          public void afterResponse(Channel clientChannel, Channel proxyChannel,
+              HttpContent httpContent, HttpProxyInterceptPipeline pipeline) throws Exception {
+            clientChannel.writeAndFlush(httpContent);
+          }
+        });
+    interceptInitializer.init(interceptPipeline);
+    return interceptPipeline;
+  }
+}
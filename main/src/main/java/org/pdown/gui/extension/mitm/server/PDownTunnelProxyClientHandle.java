@@ -0,0 +1,51 @@
+package org.pdown.gui.extension.mitm.server;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import org.pdown.gui.extension.mitm.util.FlowControlUtil;
+
+/**
+ * 隧道中目标服务器返回的数据原样写回客户端
+ */
+public class PDownTunnelProxyClientHandle extends ChannelInboundHandlerAdapter {
+
+  private Channel clientChannel;
+
+  public PDownTunnelProxyClientHandle(Channel clientChannel) {
+    this.clientChannel = clientChannel;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!clientChannel.isOpen()) {
+      ReferenceCountUtil.release(msg);
+      return;
+    }
+    clientChannel.writeAndFlush(msg);
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    //目标服务器接收不过来时暂停读取客户端
+    FlowControlUtil.writabilityChanged(ctx.channel(), clientChannel);
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
+    ctx.channel().close();
+    clientChannel.close();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    ctx.channel().close();
+    clientChannel.close();
+    PDownProxyServerHandle serverHandle = (PDownProxyServerHandle) clientChannel.pipeline().get("serverHandle");
+    if (serverHandle != null) {
+      serverHandle.getExceptionHandle().afterCatch(clientChannel, ctx.channel(), cause);
+    }
+  }
+}
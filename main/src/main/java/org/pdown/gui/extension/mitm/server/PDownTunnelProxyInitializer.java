@@ -0,0 +1,27 @@
+package org.pdown.gui.extension.mitm.server;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.proxy.ProxyHandler;
+
+/**
+ * 不解密的隧道连接目标服务器时使用，只转发原始字节
+ */
+public class PDownTunnelProxyInitializer extends ChannelInitializer {
+
+  private Channel clientChannel;
+  private ProxyHandler proxyHandler;
+
+  public PDownTunnelProxyInitializer(Channel clientChannel, ProxyHandler proxyHandler) {
+    this.clientChannel = clientChannel;
+    this.proxyHandler = proxyHandler;
+  }
+
+  @Override
+  protected void initChannel(Channel ch) throws Exception {
+    if (proxyHandler != null) {
+      ch.pipeline().addLast(proxyHandler);
+    }
+    ch.pipeline().addLast(new PDownTunnelProxyClientHandle(clientChannel));
+  }
+}
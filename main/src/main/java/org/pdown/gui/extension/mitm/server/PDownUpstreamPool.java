@@ -0,0 +1,236 @@
+package org.pdown.gui.extension.mitm.server;
+
+import com.github.monkeywie.proxyee.proxy.ProxyConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.pdown.gui.extension.mitm.util.FlowControlUtil;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+
+/**
+ * 需要解密的请求与目标服务器之间的keep-alive连接池，
+ * 按协议、域名、端口和二级代理配置区分，客户端连接关闭时把空闲的目标服务器连接放回池中
+ */
+public class PDownUpstreamPool {
+
+  private static final int MAX_IDLE = ConfigUtil.getInt("proxy.upstream.maxIdle");
+  private static final int MAX_IDLE_PER_HOST = ConfigUtil.getInt("proxy.upstream.maxIdlePerHost");
+  private static final long IDLE_TIMEOUT = ConfigUtil.getInt("proxy.upstream.idleTimeout");
+
+  //已发出但还没收到完整响应的请求数
+  private static final AttributeKey<AtomicInteger> PENDING = AttributeKey.valueOf("upstreamPending");
+  //响应不支持keep-alive、升级了协议或者被中途关闭时不能复用
+  private static final AttributeKey<Boolean> BROKEN = AttributeKey.valueOf("upstreamBroken");
+  //丢弃当前响应剩余的内容
+  private static final AttributeKey<Boolean> DRAIN = AttributeKey.valueOf("upstreamDrain");
+  //最近一次放回池中的时间，用来识别过期的空闲超时任务
+  private static final AttributeKey<Long> IDLE_SINCE = AttributeKey.valueOf("upstreamIdleSince");
+
+  private static final Map<String, Deque<Channel>> IDLE = new HashMap<>();
+  private static int idleCount;
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_proxy_upstream_reused_total", "counter",
+        "Intercepted requests served over a pooled upstream connection.", HITS::sum);
+    MetricsUtil.register("pdown_proxy_upstream_connects_total", "counter",
+        "Upstream connections opened for intercepted requests.", MISSES::sum);
+    MetricsUtil.register("pdown_proxy_upstream_idle", "gauge",
+        "Idle upstream connections in the pool.", PDownUpstreamPool::getIdleCount);
+  }
+
+  public static String key(boolean isSsl, String host, int port, ProxyConfig proxyConfig) {
+    StringBuilder key = new StringBuilder();
+    key.append(isSsl ? "https" : "http").append("://").append(host.toLowerCase()).append(":").append(port);
+    if (proxyConfig != null) {
+      key.append("@").append(proxyConfig.getProxyType())
+          .append("://").append(proxyConfig.getUser())
+          .append("@").append(proxyConfig.getHost())
+          .append(":").append(proxyConfig.getPort());
+    }
+    return key.toString();
+  }
+
+  /**
+   * 取一个可用的空闲连接，没有时返回null
+   */
+  public static Channel acquire(String key) {
+    synchronized (IDLE) {
+      Deque<Channel> channels = IDLE.get(key);
+      while (channels != null && !channels.isEmpty()) {
+        Channel channel = channels.pollLast();
+        idleCount--;
+        if (channels.isEmpty()) {
+          IDLE.remove(key);
+        }
+        if (channel.isActive()) {
+          HITS.increment();
+          return channel;
+        }
+      }
+    }
+    MISSES.increment();
+    return null;
+  }
+
+  /**
+   * 客户端连接关闭时调用，连接可以复用时放回池中，否则关闭
+   */
+  public static void release(String key, Channel channel) {
+    if (!isReusable(channel)) {
+      channel.close();
+      return;
+    }
+    Long idleSince = System.nanoTime();
+    synchronized (IDLE) {
+      Deque<Channel> channels = IDLE.computeIfAbsent(key, k -> new ArrayDeque<>());
+      if (idleCount >= MAX_IDLE || channels.size() >= MAX_IDLE_PER_HOST) {
+        if (channels.isEmpty()) {
+          IDLE.remove(key);
+        }
+        channel.close();
+        return;
+      }
+      //放回池中之前换掉处理器，空闲时服务器发来的数据都是异常情况，直接关闭连接
+      channel.pipeline().replace("proxyClientHandle", "proxyClientHandle", new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+          ReferenceCountUtil.release(msg);
+          ctx.channel().close();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+          ctx.channel().close();
+        }
+      });
+      //原来的客户端接收不过来时可能暂停了读取
+      FlowControlUtil.resume(channel);
+      //第一次放回池中时才注册关闭监听，避免复用多次后监听器堆积
+      if (channel.attr(IDLE_SINCE).getAndSet(idleSince) == null) {
+        channel.closeFuture().addListener(future -> remove(key, channel));
+      }
+      channels.addLast(channel);
+      idleCount++;
+    }
+    channel.eventLoop().schedule(() -> {
+      if (idleSince.equals(channel.attr(IDLE_SINCE).get()) && remove(key, channel)) {
+        channel.close();
+      }
+    }, IDLE_TIMEOUT, TimeUnit.SECONDS);
+  }
+
+  /**
+   * 关闭所有空闲连接，前置代理变化时调用
+   */
+  public static void clear() {
+    List<Channel> channels = new ArrayList<>();
+    synchronized (IDLE) {
+      for (Deque<Channel> deque : IDLE.values()) {
+        channels.addAll(deque);
+      }
+      IDLE.clear();
+      idleCount = 0;
+    }
+    for (Channel channel : channels) {
+      channel.close();
+    }
+  }
+
+  /**
+   * 通过连接发出了一个新请求
+   */
+  public static void requestSent(Channel channel) {
+    pending(channel).incrementAndGet();
+  }
+
+  /**
+   * 连接收到了一个完整的响应
+   */
+  public static void responseDone(Channel channel) {
+    pending(channel).decrementAndGet();
+  }
+
+  /**
+   * 标记连接不能再复用
+   */
+  public static void markBroken(Channel channel) {
+    channel.attr(BROKEN).set(true);
+  }
+
+  /**
+   * 拦截器不需要目标服务器的响应内容时调用，剩余内容读完后丢弃，连接仍然可以复用
+   */
+  public static void drain(Channel channel) {
+    channel.attr(DRAIN).set(true);
+  }
+
+  public static boolean isDraining(Channel channel) {
+    return Boolean.TRUE.equals(channel.attr(DRAIN).get());
+  }
+
+  public static void drainDone(Channel channel) {
+    channel.attr(DRAIN).set(null);
+  }
+
+  private static boolean isReusable(Channel channel) {
+    return channel.isActive()
+        && !Boolean.TRUE.equals(channel.attr(BROKEN).get())
+        && !isDraining(channel)
+        && pending(channel).get() == 0;
+  }
+
+  private static AtomicInteger pending(Channel channel) {
+    AtomicInteger pending = channel.attr(PENDING).get();
+    if (pending == null) {
+      pending = new AtomicInteger();
+      AtomicInteger old = channel.attr(PENDING).setIfAbsent(pending);
+      if (old != null) {
+        pending = old;
+      }
+    }
+    return pending;
+  }
+
+  private static boolean remove(String key, Channel channel) {
+    synchronized (IDLE) {
+      Deque<Channel> channels = IDLE.get(key);
+      if (channels == null) {
+        return false;
+      }
+      Iterator<Channel> iterator = channels.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next() == channel) {
+          iterator.remove();
+          idleCount--;
+          if (channels.isEmpty()) {
+            IDLE.remove(key);
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static int getIdleCount() {
+    synchronized (IDLE) {
+      return idleCount;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package org.pdown.gui.extension.mitm.ssl;
+
+import com.github.monkeywie.proxyee.crt.CertUtil;
+import com.github.monkeywie.proxyee.server.HttpProxyServerConfig;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.pdown.core.util.FileUtil;
+import org.pdown.gui.extension.mitm.util.ExtensionSslUtil;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.AppUtil;
+import org.pdown.gui.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 动态生成的网站证书缓存，分两级：
+ * 内存中按LRU保存可以直接使用的SslContext，磁盘上按CA指纹和域名保存证书和私钥，重启后不需要重新生成。
+ * 证书按上一级域名签发通配符证书，同一个站点下的子域名(例如CDN)共用一个证书
+ */
+public class PDownCertPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PDownCertPool.class);
+
+  private static final String CERTS_PATH = AppUtil.SSL_PATH + "certs" + File.separator;
+  private static final int CACHE_SIZE = ConfigUtil.getInt("proxy.cert.cacheSize");
+  //国家域名下常见的二级公共后缀，例如com.cn、co.uk
+  private static final Set<String> SECOND_LEVEL_SUFFIXES = new HashSet<>(Arrays.asList(
+      "com", "net", "org", "gov", "edu", "mil", "co", "ac", "or", "ne", "go", "gob", "nic", "info", "biz"
+  ));
+  //同一个域名同时只生成一次证书
+  private static final Object[] LOCKS = new Object[32];
+
+  private static final Map<String, SslContext> CACHE = new LinkedHashMap<String, SslContext>(16, 0.75F, true) {
+    @Override
+    protected boolean removeEldestEntry(Entry<String, SslContext> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder DISK_HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  private static final LongAdder GENERATE_NANOS = new LongAdder();
+
+  //当前CA证书对应的磁盘缓存目录，CA证书更换后自动使用新目录
+  private static volatile String caPath;
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new Object();
+    }
+    MetricsUtil.register("pdown_proxy_cert_hits_total", "counter",
+        "Leaf certificates served from memory.", HITS::sum);
+    MetricsUtil.register("pdown_proxy_cert_disk_hits_total", "counter",
+        "Leaf certificates loaded from disk.", DISK_HITS::sum);
+    MetricsUtil.register("pdown_proxy_cert_misses_total", "counter",
+        "Leaf certificates generated.", MISSES::sum);
+    MetricsUtil.register("pdown_proxy_cert_generate_seconds_total", "counter",
+        "Time spent generating leaf certificates.", () -> GENERATE_NANOS.sum() / 1000000000D);
+  }
+
+  /**
+   * 代理服务器初始化ssl时调用，清空内存缓存并根据CA证书指纹切换磁盘缓存目录
+   */
+  public static void init(X509Certificate caCert) throws Exception {
+    synchronized (CACHE) {
+      CACHE.clear();
+    }
+    caPath = CERTS_PATH + hex(MessageDigest.getInstance("SHA-1").digest(caCert.getEncoded()), 8) + File.separator;
+  }
+
+  public static SslContext getSslContext(String host, HttpProxyServerConfig serverConfig) throws Exception {
+    String key = certHost(host.trim().toLowerCase());
+    SslContext sslContext = get(key);
+    if (sslContext != null) {
+      HITS.increment();
+      return sslContext;
+    }
+    synchronized (LOCKS[(key.hashCode() & Integer.MAX_VALUE) % LOCKS.length]) {
+      //等锁期间其它连接可能已经生成好了
+      sslContext = get(key);
+      if (sslContext != null) {
+        HITS.increment();
+        return sslContext;
+      }
+      String path = caPath;
+      PrivateKey priKey = null;
+      X509Certificate cert = null;
+      if (path != null) {
+        try {
+          File certFile = new File(path + fileName(key) + ".crt");
+          File keyFile = new File(path + fileName(key) + ".key");
+          if (certFile.exists() && keyFile.exists()) {
+            cert = loadCert(Files.readAllBytes(certFile.toPath()));
+            cert.checkValidity();
+            priKey = loadPriKey(Files.readAllBytes(keyFile.toPath()));
+            DISK_HITS.increment();
+          }
+        } catch (Exception e) {
+          //证书损坏或者过期了，重新生成
+          cert = null;
+          priKey = null;
+        }
+      }
+      if (cert == null) {
+        long start = System.nanoTime();
+        KeyPair keyPair = PDownKeyPairPool.take();
+        priKey = keyPair.getPrivate();
+        cert = CertUtil.genCert(serverConfig.getIssuer(), serverConfig.getCaPriKey(),
+            serverConfig.getCaNotBefore(), serverConfig.getCaNotAfter(),
+            keyPair.getPublic(), certNames(key));
+        GENERATE_NANOS.add(System.nanoTime() - start);
+        MISSES.increment();
+        if (path != null) {
+          save(path, key, cert, priKey);
+        }
+      }
+      sslContext = ExtensionSslUtil.buildServer(SslContextBuilder.forServer(priKey, cert));
+      synchronized (CACHE) {
+        CACHE.put(key, sslContext);
+      }
+      return sslContext;
+    }
+  }
+
+  /**
+   * 证书对应的域名，三级及以上的域名使用上一级域名的通配符，例如a.b.com对应*.b.com
+   */
+  public static String certHost(String host) {
+    if (isIp(host)) {
+      return host;
+    }
+    int index = host.indexOf('.');
+    if (index == -1) {
+      return host;
+    }
+    String parent = host.substring(index + 1);
+    if (parent.indexOf('.') == -1 || isPublicSuffix(parent)) {
+      return host;
+    }
+    return "*." + parent;
+  }
+
+  //证书的CN和SAN，通配符证书同时包含上一级域名本身
+  private static String[] certNames(String certHost) {
+    if (certHost.startsWith("*.")) {
+      return new String[]{certHost, certHost.substring(2)};
+    }
+    return new String[]{certHost};
+  }
+
+  //没有引入公共后缀列表，只处理常见的com.cn、co.uk这类两级的国家后缀
+  private static boolean isPublicSuffix(String domain) {
+    String[] labels = domain.split("\\.");
+    return labels.length == 2
+        && labels[1].length() == 2
+        && SECOND_LEVEL_SUFFIXES.contains(labels[0]);
+  }
+
+  private static boolean isIp(String host) {
+    //ipv6或者ipv4
+    return host.indexOf(':') != -1 || host.matches("^\\d+\\.\\d+\\.\\d+\\.\\d+$");
+  }
+
+  private static SslContext get(String key) {
+    synchronized (CACHE) {
+      return CACHE.get(key);
+    }
+  }
+
+  private static void save(String path, String key, X509Certificate cert, PrivateKey priKey) {
+    try {
+      new File(path).mkdirs();
+      File keyFile = FileUtil.createFile(path + fileName(key) + ".key", true);
+      Files.write(keyFile.toPath(), priKey.getEncoded());
+      //证书最后写，读取时证书和私钥都存在才会使用
+      File certFile = FileUtil.createFile(path + fileName(key) + ".crt", false);
+      Files.write(certFile.toPath(), cert.getEncoded());
+    } catch (Exception e) {
+      LOGGER.warn("Save cert error:" + key, e);
+    }
+  }
+
+  private static X509Certificate loadCert(byte[] bytes) throws Exception {
+    return (X509Certificate) CertificateFactory.getInstance("X.509")
+        .generateCertificate(new ByteArrayInputStream(bytes));
+  }
+
+  //私钥可能是RSA或者EC，按配置切换算法后旧的证书仍然可以使用
+  private static PrivateKey loadPriKey(byte[] bytes) throws Exception {
+    PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(bytes);
+    try {
+      return KeyFactory.getInstance("RSA").generatePrivate(keySpec);
+    } catch (InvalidKeySpecException e) {
+      return KeyFactory.getInstance("EC").generatePrivate(keySpec);
+    }
+  }
+
+  //域名只保留文件名安全的字符
+  private static String fileName(String host) {
+    StringBuilder builder = new StringBuilder(host.length());
+    for (char c : host.toCharArray()) {
+      if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+        builder.append(c);
+      } else {
+        builder.append('_');
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String hex(byte[] bytes, int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(String.format("%02x", bytes[i]));
+    }
+    return builder.toString();
+  }
+}
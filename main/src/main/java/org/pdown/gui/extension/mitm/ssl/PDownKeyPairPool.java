@@ -0,0 +1,81 @@
+package org.pdown.gui.extension.mitm.ssl;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 网站证书公私钥池，后台线程提前生成好，签发证书时直接取用，池为空时才同步生成
+ */
+public class PDownKeyPairPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PDownKeyPairPool.class);
+
+  //RSA(2048位)或者EC(P-256)
+  private static final String ALGORITHM = ConfigUtil.getString("proxy.cert.keyAlgorithm");
+  private static final int SIZE = ConfigUtil.getInt("proxy.cert.keyPoolSize");
+
+  private static final BlockingQueue<KeyPair> POOL = new ArrayBlockingQueue<>(Math.max(1, SIZE));
+  private static final LongAdder INLINE = new LongAdder();
+  private static Thread fillThread;
+
+  static {
+    MetricsUtil.register("pdown_proxy_key_pool_size", "gauge",
+        "Pre-generated leaf key pairs ready to use.", POOL::size);
+    MetricsUtil.register("pdown_proxy_key_inline_total", "counter",
+        "Leaf key pairs generated inline because the pool was empty.", INLINE::sum);
+  }
+
+  /**
+   * 启动后台填充线程，重复调用只会启动一次
+   */
+  public synchronized static void start() {
+    if (SIZE <= 0 || fillThread != null) {
+      return;
+    }
+    fillThread = new Thread(() -> {
+      while (true) {
+        try {
+          POOL.put(generate());
+        } catch (InterruptedException e) {
+          return;
+        } catch (Exception e) {
+          LOGGER.error("Generate key pair error", e);
+          return;
+        }
+      }
+    }, "key-pair-pool");
+    fillThread.setDaemon(true);
+    fillThread.setPriority(Thread.MIN_PRIORITY);
+    fillThread.start();
+  }
+
+  public static KeyPair take() throws GeneralSecurityException {
+    KeyPair keyPair = POOL.poll();
+    if (keyPair == null) {
+      INLINE.increment();
+      keyPair = generate();
+    }
+    return keyPair;
+  }
+
+  public static KeyPair generate() throws GeneralSecurityException {
+    KeyPairGenerator generator;
+    if ("EC".equalsIgnoreCase(ALGORITHM)) {
+      generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+    } else {
+      generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(2048);
+    }
+    return generator.generateKeyPair();
+  }
+}
@@ -0,0 +1,119 @@
+package org.pdown.gui.extension.mitm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.pdown.gui.extension.ExtensionContent;
+import org.pdown.gui.extension.ExtensionPattern;
+
+/**
+ * 判断一个域名是否需要MITM解密，只有扩展代理域名和嗅探下载url可能命中的域名才需要解密
+ */
+public class ExtensionHostUtil {
+
+  private static volatile HostMatcher MATCHER;
+
+  /**
+   * CONNECT请求的目标是否需要解密并经过拦截器处理
+   */
+  public static boolean needIntercept(String host, int port) {
+    Set<String> wildcards = ExtensionContent.getProxyWildCards();
+    Set<String> sniffRegexs = ExtensionContent.getSniffRegexs();
+    HostMatcher matcher = MATCHER;
+    //扩展刷新时会生成新的集合，引用变化时重新编译
+    if (matcher == null || matcher.wildcards != wildcards || matcher.sniffRegexs != sniffRegexs) {
+      matcher = new HostMatcher(wildcards, sniffRegexs);
+      MATCHER = matcher;
+    }
+    return matcher.match(host, port);
+  }
+
+  /**
+   * 把shExpMatch风格的通配符转换成正则表达式
+   */
+  public static Pattern compileWildcard(String wildcard) {
+    StringBuilder regex = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (char c : wildcard.toCharArray()) {
+      if (c == '*' || c == '?') {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '*' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (literal.length() > 0) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+  }
+
+  private static class HostMatcher {
+
+    //缓存的域名数量上限，超过之后清空重新缓存
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    private final Set<String> wildcards;
+    private final Set<String> sniffRegexs;
+    private final List<Pattern> wildcardPatterns = new ArrayList<>();
+    private final List<ExtensionPattern> sniffPatterns = new ArrayList<>();
+    private final Map<String, Boolean> cache = new ConcurrentHashMap<>();
+
+    HostMatcher(Set<String> wildcards, Set<String> sniffRegexs) {
+      this.wildcards = wildcards;
+      this.sniffRegexs = sniffRegexs;
+      if (wildcards != null) {
+        for (String wildcard : wildcards) {
+          wildcardPatterns.add(compileWildcard(wildcard));
+        }
+      }
+      if (sniffRegexs != null) {
+        for (String regex : sniffRegexs) {
+          try {
+            sniffPatterns.add(ExtensionPattern.compile(regex));
+          } catch (Exception e) {
+            //正则表达式有误时SniffIntercept同样匹配不上，这里直接忽略
+          }
+        }
+      }
+    }
+
+    boolean match(String host, int port) {
+      if (host == null) {
+        return false;
+      }
+      //嗅探时用来匹配的url是Host请求头加上uri，443端口时Host请求头不带端口
+      String urlPrefix = port == 443 ? host : host + ":" + port;
+      Boolean result = cache.get(urlPrefix);
+      if (result == null) {
+        result = doMatch(host, urlPrefix);
+        if (cache.size() >= MAX_CACHE_SIZE) {
+          cache.clear();
+        }
+        cache.put(urlPrefix, result);
+      }
+      return result;
+    }
+
+    private boolean doMatch(String host, String urlPrefix) {
+      for (Pattern pattern : wildcardPatterns) {
+        if (pattern.matcher(host).matches()) {
+          return true;
+        }
+      }
+      for (ExtensionPattern pattern : sniffPatterns) {
+        //匹配过程中读到了输入的末尾，说明后面加上path之后可能匹配，需要解密
+        if (pattern.mayMatchPrefix(urlPrefix)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package org.pdown.gui.extension.mitm.util;
+
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MITM代理的ssl配置：选择ssl实现、开启会话缓存和会话票据，统计握手次数、复用率和耗时
+ */
+public class ExtensionSslUtil {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionSslUtil.class);
+
+  private static final int SESSION_CACHE_SIZE = ConfigUtil.getInt("proxy.ssl.sessionCacheSize");
+  private static final int SESSION_TIMEOUT = ConfigUtil.getInt("proxy.ssl.sessionTimeout");
+  private static final SslProvider PROVIDER = initProvider();
+  //所有网站证书共用同一组票据密钥，每次启动随机生成
+  private static final OpenSslSessionTicketKey TICKET_KEY = initTicketKey();
+
+  private static final LongAdder HANDSHAKES = new LongAdder();
+  private static final LongAdder RESUMED = new LongAdder();
+  private static final LongAdder FAILED = new LongAdder();
+  private static final LongAdder HANDSHAKE_NANOS = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_proxy_ssl_handshakes_total", "counter",
+        "Completed MITM TLS handshakes with browsers.", HANDSHAKES::sum);
+    MetricsUtil.register("pdown_proxy_ssl_resumed_total", "counter",
+        "MITM TLS handshakes that resumed a previous session.", RESUMED::sum);
+    MetricsUtil.register("pdown_proxy_ssl_failed_total", "counter",
+        "Failed MITM TLS handshakes.", FAILED::sum);
+    MetricsUtil.register("pdown_proxy_ssl_handshake_seconds_total", "counter",
+        "Time spent in MITM TLS handshakes.", () -> HANDSHAKE_NANOS.sum() / 1000000000D);
+    MetricsUtil.register("pdown_proxy_ssl_resumption_ratio", "gauge",
+        "Share of MITM TLS handshakes that resumed a session.", () -> {
+          long handshakes = HANDSHAKES.sum();
+          return handshakes == 0 ? 0 : RESUMED.sum() / (double) handshakes;
+        });
+  }
+
+  public static SslProvider getProvider() {
+    return PROVIDER;
+  }
+
+  /**
+   * 构建网站证书对应的服务端SslContext
+   */
+  public static SslContext buildServer(SslContextBuilder builder) throws SSLException {
+    SslContext sslContext = builder.sslProvider(PROVIDER)
+        .sessionCacheSize(SESSION_CACHE_SIZE)
+        .sessionTimeout(SESSION_TIMEOUT)
+        .build();
+    //jdk实现不支持服务端会话票据，只使用会话缓存
+    if (TICKET_KEY != null && sslContext.sessionContext() instanceof OpenSslSessionContext) {
+      ((OpenSslSessionContext) sslContext.sessionContext()).setTicketKeys(TICKET_KEY);
+    }
+    return sslContext;
+  }
+
+  /**
+   * 统计握手结果，会话的创建时间早于握手开始时间说明是复用的会话
+   */
+  public static void watch(SslHandler sslHandler) {
+    long startNanos = System.nanoTime();
+    long startMillis = System.currentTimeMillis();
+    sslHandler.handshakeFuture().addListener(future -> {
+      if (future.isSuccess()) {
+        HANDSHAKES.increment();
+        HANDSHAKE_NANOS.add(System.nanoTime() - startNanos);
+        SSLSession session = sslHandler.engine().getSession();
+        if (session != null && session.getCreationTime() < startMillis) {
+          RESUMED.increment();
+        }
+      } else {
+        FAILED.increment();
+      }
+    });
+  }
+
+  private static SslProvider initProvider() {
+    if (ConfigUtil.getBoolean("proxy.ssl.openssl")) {
+      if (OpenSsl.isAvailable()) {
+        return SslProvider.OPENSSL;
+      }
+      LOGGER.warn("OpenSSL is not available, fallback to JDK", OpenSsl.unavailabilityCause());
+    }
+    return SslProvider.JDK;
+  }
+
+  private static OpenSslSessionTicketKey initTicketKey() {
+    if (PROVIDER != SslProvider.OPENSSL) {
+      return null;
+    }
+    SecureRandom random = new SecureRandom();
+    byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+    byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+    byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+    random.nextBytes(name);
+    random.nextBytes(hmacKey);
+    random.nextBytes(aesKey);
+    return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+  }
+}
@@ -0,0 +1,107 @@
+package org.pdown.gui.extension.mitm.util;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+
+/**
+ * 客户端和目标服务器连接之间的流量控制，一端待发送的数据超过高水位时暂停读取另一端，
+ * 回落到低水位以下再恢复，代理内存占用不会随着下载速度差而无限增长
+ */
+public class FlowControlUtil {
+
+  private static final WriteBufferWaterMark WATER_MARK = new WriteBufferWaterMark(
+      ConfigUtil.getInt("proxy.buffer.lowWaterMark"), ConfigUtil.getInt("proxy.buffer.highWaterMark"));
+
+  //因为对端写不出去而被暂停读取
+  private static final AttributeKey<Boolean> PAUSED = AttributeKey.valueOf("flowPaused");
+
+  //代理服务器上的所有客户端和目标服务器连接，关闭后自动移除
+  private static final ChannelGroup CHANNELS = new DefaultChannelGroup("proxy-flow", GlobalEventExecutor.INSTANCE);
+
+  private static final LongAdder PAUSES = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_proxy_buffered_bytes", "gauge",
+        "Bytes waiting in outbound buffers of all proxy connections.", () -> buffered()[0]);
+    MetricsUtil.register("pdown_proxy_buffered_bytes_max", "gauge",
+        "Largest outbound buffer of a single proxy connection.", () -> buffered()[1]);
+    MetricsUtil.register("pdown_proxy_paused_connections", "gauge",
+        "Proxy connections whose reads are paused by backpressure.", FlowControlUtil::pausedCount);
+    MetricsUtil.register("pdown_proxy_pauses_total", "counter",
+        "Times a proxy connection was paused because its peer could not keep up.", PAUSES::sum);
+  }
+
+  public static WriteBufferWaterMark getWaterMark() {
+    return WATER_MARK;
+  }
+
+  /**
+   * 统计连接的待发送数据量
+   */
+  public static void track(Channel channel) {
+    CHANNELS.add(channel);
+  }
+
+  /**
+   * writer的可写状态变化时调用，不可写时暂停读取reader，恢复可写时继续读取
+   */
+  public static void writabilityChanged(Channel writer, Channel reader) {
+    if (reader == null) {
+      return;
+    }
+    if (writer.isWritable()) {
+      resume(reader);
+    } else if (writer.isActive()) {
+      pause(reader);
+    }
+  }
+
+  /**
+   * 恢复被流量控制暂停的连接，没有被暂停的连接不受影响
+   */
+  public static void resume(Channel channel) {
+    if (channel.attr(PAUSED).getAndSet(null) != null) {
+      channel.config().setAutoRead(true);
+    }
+  }
+
+  private static void pause(Channel channel) {
+    //本来就没有开启自动读取的连接(例如等待splice的隧道)由各自的逻辑负责恢复
+    if (channel.config().isAutoRead() && channel.attr(PAUSED).setIfAbsent(true) == null) {
+      PAUSES.increment();
+      channel.config().setAutoRead(false);
+    }
+  }
+
+  private static long[] buffered() {
+    long total = 0;
+    long max = 0;
+    for (Channel channel : CHANNELS) {
+      ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+      if (outboundBuffer != null) {
+        long pending = outboundBuffer.totalPendingWriteBytes();
+        total += pending;
+        max = Math.max(max, pending);
+      }
+    }
+    return new long[]{total, max};
+  }
+
+  private static int pausedCount() {
+    int count = 0;
+    for (Channel channel : CHANNELS) {
+      if (channel.hasAttr(PAUSED) && channel.attr(PAUSED).get() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
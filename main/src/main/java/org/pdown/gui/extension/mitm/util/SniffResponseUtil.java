@@ -0,0 +1,133 @@
+package org.pdown.gui.extension.mitm.util;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.pdown.core.entity.HttpResponseInfo;
+import org.pdown.gui.http.util.MetricsUtil;
+
+/**
+ * 嗅探到下载时直接根据拦截到的响应头生成HttpResponseInfo，不再向服务器重新请求一次，
+ * 只有响应头无法确定文件大小或者是否支持断点续传时才需要探测
+ */
+public class SniffResponseUtil {
+
+  private static final Pattern CONTENT_RANGE = Pattern.compile("^\\s*bytes\\s+(\\d+)-(\\d+)/(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern FILENAME_EXT = Pattern.compile("filename\\*\\s*=\\s*([^']*)'[^']*'([^;]+)", Pattern.CASE_INSENSITIVE);
+  private static final Pattern FILENAME = Pattern.compile("filename\\s*=\\s*(\"([^\"]*)\"|[^;]+)", Pattern.CASE_INSENSITIVE);
+
+  private static final LongAdder FROM_HEADERS = new LongAdder();
+  private static final LongAdder PROBED = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_sniff_takeover_headers_total", "counter",
+        "Sniffed downloads described from the intercepted response headers.", FROM_HEADERS::sum);
+    MetricsUtil.register("pdown_sniff_takeover_probes_total", "counter",
+        "Sniffed downloads that needed an extra probe request.", PROBED::sum);
+  }
+
+  /**
+   * 根据拦截到的响应生成下载信息，无法确定时返回null，由调用方再发起探测请求
+   */
+  public static HttpResponseInfo parse(HttpRequest httpRequest, HttpResponse httpResponse) {
+    HttpHeaders headers = httpResponse.headers();
+    long totalSize;
+    boolean supportRange;
+    if (httpResponse.status().code() == HttpResponseStatus.PARTIAL_CONTENT.code()) {
+      //206响应，Content-Range中带有文件总大小
+      Matcher matcher = CONTENT_RANGE.matcher(headers.get(HttpHeaderNames.CONTENT_RANGE, ""));
+      if (!matcher.find()) {
+        return probe();
+      }
+      totalSize = Long.parseLong(matcher.group(3));
+      supportRange = true;
+    } else if (httpResponse.status().code() == HttpResponseStatus.OK.code()) {
+      //内容经过压缩时Content-Length不是文件大小
+      if (!HttpUtil.isContentLengthSet(httpResponse) || HttpUtil.isTransferEncodingChunked(httpResponse)
+          || isEncoded(headers)) {
+        return probe();
+      }
+      String acceptRanges = headers.get(HttpHeaderNames.ACCEPT_RANGES);
+      //没有Accept-Ranges响应头时不一定不支持断点续传
+      if (acceptRanges == null) {
+        return probe();
+      }
+      totalSize = HttpUtil.getContentLength(httpResponse, 0L);
+      //弱ETag说明内容可能按请求动态生成，分段下载拿到的不一定是同一个文件
+      supportRange = HttpHeaderValues.BYTES.contentEqualsIgnoreCase(acceptRanges.trim())
+          && totalSize > 0
+          && !headers.get(HttpHeaderNames.ETAG, "").startsWith("W/");
+    } else {
+      return probe();
+    }
+    HttpResponseInfo responseInfo = new HttpResponseInfo();
+    responseInfo.setFileName(getFileName(httpRequest, headers));
+    responseInfo.setTotalSize(totalSize);
+    responseInfo.setSupportRange(supportRange);
+    FROM_HEADERS.increment();
+    return responseInfo;
+  }
+
+  /**
+   * 文件名优先取Content-Disposition(filename*优先于filename)，没有时取url路径的最后一段
+   */
+  public static String getFileName(HttpRequest httpRequest, HttpHeaders headers) {
+    String disposition = headers.get(HttpHeaderNames.CONTENT_DISPOSITION);
+    if (disposition != null) {
+      Matcher matcher = FILENAME_EXT.matcher(disposition);
+      if (matcher.find()) {
+        String charset = matcher.group(1).trim();
+        String fileName = decode(matcher.group(2).trim(), charset.isEmpty() ? "UTF-8" : charset);
+        if (!fileName.isEmpty()) {
+          return fileName;
+        }
+      }
+      matcher = FILENAME.matcher(disposition);
+      if (matcher.find()) {
+        String fileName = matcher.group(2) != null ? matcher.group(2) : matcher.group(1).trim();
+        fileName = decode(fileName, "UTF-8");
+        if (!fileName.isEmpty()) {
+          return fileName;
+        }
+      }
+    }
+    String path = httpRequest.uri();
+    int index = path.indexOf('?');
+    if (index != -1) {
+      path = path.substring(0, index);
+    }
+    index = path.indexOf('#');
+    if (index != -1) {
+      path = path.substring(0, index);
+    }
+    String fileName = decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+    return fileName.isEmpty() ? "index.html" : fileName;
+  }
+
+  private static boolean isEncoded(HttpHeaders headers) {
+    String encoding = headers.get(HttpHeaderNames.CONTENT_ENCODING);
+    return encoding != null && !HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(encoding.trim());
+  }
+
+  private static String decode(String value, String charset) {
+    try {
+      return URLDecoder.decode(value.replace("+", "%2B"), charset);
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return value;
+    }
+  }
+
+  private static HttpResponseInfo probe() {
+    PROBED.increment();
+    return null;
+  }
+}
@@ -0,0 +1,78 @@
+package org.pdown.gui.extension.mitm.util;
+
+import com.github.monkeywie.proxyee.proxy.ProxyConfig;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.util.ConfigUtil;
+import org.pdown.gui.util.TransportUtil;
+
+/**
+ * 隧道连接使用epoll splice转发，数据通过管道在内核中直接从一个socket搬到另一个socket，不经过jvm堆，
+ * 由proxy.tunnel.splice开启
+ */
+public class SpliceUtil {
+
+  private static final boolean ENABLED = ConfigUtil.getBoolean("proxy.tunnel.splice");
+
+  private static final LongAdder SPLICED = new LongAdder();
+
+  static {
+    MetricsUtil.register("pdown_proxy_tunnel_spliced_total", "counter",
+        "Tunnels relayed with epoll splice.", SPLICED::sum);
+  }
+
+  /**
+   * 配置开启了splice并且使用epoll
+   */
+  public static boolean isEnabled() {
+    return ENABLED && TransportUtil.isEpoll();
+  }
+
+  /**
+   * 客户端连接是水平触发的epoll连接并且没有前置代理时才能splice，前置代理需要在pipeline中完成握手
+   */
+  public static boolean isSupported(Channel clientChannel, ProxyConfig proxyConfig) {
+    return proxyConfig == null
+        && isEnabled()
+        && clientChannel instanceof EpollSocketChannel
+        && ((EpollSocketChannel) clientChannel).config().getEpollMode() == EpollMode.LEVEL_TRIGGERED;
+  }
+
+  /**
+   * 两个连接需要在同一个EventLoop上，注册前都设置了水平触发(splice只支持水平触发)，并且在调用前都关闭了autoRead，
+   * 之前通过pipeline写出的数据全部发送完之后再开始splice，避免数据乱序
+   */
+  public static void splice(Channel clientChannel, Channel proxyChannel) {
+    EpollSocketChannel client = (EpollSocketChannel) clientChannel;
+    EpollSocketChannel proxy = (EpollSocketChannel) proxyChannel;
+    proxy.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener((ChannelFutureListener) future -> {
+      if (!future.isSuccess()) {
+        client.close();
+        proxy.close();
+        return;
+      }
+      SPLICED.increment();
+      spliceForever(client, proxy);
+      spliceForever(proxy, client);
+      client.config().setAutoRead(true);
+      proxy.config().setAutoRead(true);
+    });
+  }
+
+  //一次splice最多转发Integer.MAX_VALUE字节，转发完了继续
+  private static void spliceForever(EpollSocketChannel src, EpollSocketChannel dst) {
+    src.spliceTo(dst, Integer.MAX_VALUE).addListener((ChannelFutureListener) future -> {
+      if (!future.isSuccess()) {
+        src.close();
+        dst.close();
+      } else if (src.isActive() && dst.isActive()) {
+        spliceForever(src, dst);
+      }
+    });
+  }
+}
@@ -5,9 +5,14 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -15,67 +20,77 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.concurrent.GenericFutureListener;
-import java.lang.reflect.Method;
-import java.net.URI;
-import java.util.ArrayList;
+import java.io.File;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import org.pdown.gui.http.RouteTable.Route;
 import org.pdown.gui.http.controller.DefaultController;
 import org.pdown.gui.http.controller.NativeController;
 import org.pdown.gui.http.util.HttpHandlerUtil;
+import org.pdown.gui.util.TransportUtil;
+import org.pdown.rest.util.PathUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.bind.annotation.RequestMapping;
 
 public class EmbedHttpServer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(EmbedHttpServer.class);
 
+  //进程内访问api服务器的地址
+  public static final LocalAddress LOCAL_ADDRESS = new LocalAddress("pdown-api");
+  //linux下api服务器监听的unix domain socket文件
+  public static final String DOMAIN_SOCKET_PATH = PathUtil.ROOT_PATH + File.separator + "pdown-api.sock";
+
   private int port;
   private DefaultController defaultController;
-  private List<Object> controllerList;
+  private RouteTable routeTable;
 
   public EmbedHttpServer(int port) {
     this.port = port;
     this.defaultController = new DefaultController();
-    this.controllerList = new ArrayList<>();
+    this.routeTable = new RouteTable();
   }
 
-  //根据请求uri找到对应的处理类方法执行
-  public FullHttpResponse invoke(String uri, Channel channel, FullHttpRequest request)
+  //根据请求uri在路由表中找到对应的处理方法执行，返回FullHttpResponse或CompletableFuture<FullHttpResponse>
+  public Object invoke(String uri, Channel channel, FullHttpRequest request)
       throws Exception {
-    if (controllerList != null) {
-      for (Object obj : controllerList) {
-        Class<?> clazz = obj.getClass();
-        RequestMapping mapping = clazz.getAnnotation(RequestMapping.class);
-        if (mapping != null) {
-          String mappingUri = fixUri(mapping.value()[0]);
-          for (Method actionMethod : clazz.getMethods()) {
-            RequestMapping subMapping = actionMethod.getAnnotation(RequestMapping.class);
-            if (subMapping != null) {
-              String subMappingUri = fixUri(subMapping.value()[0]);
-              if (uri.equalsIgnoreCase(mappingUri + subMappingUri)) {
-                return (FullHttpResponse) actionMethod.invoke(obj, channel, request);
-              }
-            }
-          }
-        }
+    Route route = routeTable.find(uri);
+    if (route != null) {
+      if (route.hasPathVariables()) {
+        channel.attr(HttpHandlerUtil.PATH_VARIABLES).set(route.getPathVariables(uri));
+      }
+      RouteMetrics metrics = route.getMetrics();
+      long startTime = metrics.start();
+      Object result;
+      try {
+        result = route.invoke(channel, request);
+      } catch (Exception | Error e) {
+        metrics.end(startTime, -1, true);
+        throw e;
+      }
+      if (result instanceof CompletableFuture) {
+        //返回whenComplete产生的新future，保证统计在响应写出之前完成
+        result = ((CompletableFuture<FullHttpResponse>) result)
+            .whenComplete((httpResponse, cause) -> record(metrics, startTime, httpResponse, cause));
+      } else {
+        record(metrics, startTime, (FullHttpResponse) result, null);
       }
+      return result;
     }
     return defaultController.handle(channel, request);
   }
 
-  private String fixUri(String uri) {
-    StringBuilder builder = new StringBuilder(uri);
-    if (builder.indexOf("/") != 0) {
-      builder.insert(0, "/");
+  private void record(RouteMetrics metrics, long startTime, FullHttpResponse httpResponse, Throwable cause) {
+    if (httpResponse == null) {
+      metrics.end(startTime, -1, cause != null);
+    } else {
+      metrics.end(startTime, httpResponse.content().readableBytes(), httpResponse.status().code() >= 500);
     }
-    if (builder.lastIndexOf("/") == builder.length() - 1) {
-      builder.delete(builder.length() - 1, builder.length());
-    }
-    return builder.toString();
   }
 
   public void start() {
@@ -83,49 +98,66 @@ public class EmbedHttpServer {
   }
 
   public void start(GenericFutureListener startedListener) {
-    NioEventLoopGroup bossGroup = new NioEventLoopGroup(2);
-    NioEventLoopGroup workGroup = new NioEventLoopGroup(2);
+    EventLoopGroup bossGroup = TransportUtil.bossGroup(TransportUtil.apiBossThreads(), "api-boss");
+    EventLoopGroup workGroup = TransportUtil.workerGroup(TransportUtil.apiWorkerThreads(), "api-worker");
+    Channel localChannel = null;
+    Channel domainSocketChannel = null;
     try {
-      ServerBootstrap bootstrap = new ServerBootstrap().group(bossGroup, workGroup)
-          .channel(NioServerSocketChannel.class)
-          .childHandler(new ChannelInitializer<Channel>() {
-            @Override
-            protected void initChannel(Channel ch) throws Exception {
-              ch.pipeline().addLast("httpCodec", new HttpServerCodec());
-              ch.pipeline().addLast(new HttpObjectAggregator(4194304));
-              ch.pipeline()
-                  .addLast("serverHandle", new SimpleChannelInboundHandler<FullHttpRequest>() {
-
-                    @Override
-                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request)
-                        throws Exception {
-                      URI uri = new URI(request.uri());
-                      FullHttpResponse httpResponse = invoke(uri.getPath(), ctx.channel(), request);
-                      if (httpResponse != null) {
-                        httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-                        httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpResponse.content().readableBytes());
-                        ch.writeAndFlush(httpResponse);
+      ChannelInitializer<Channel> initializer = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel ch) throws Exception {
+          ch.pipeline().addLast("httpCodec", new HttpServerCodec());
+          ch.pipeline().addLast(new HttpObjectAggregator(4194304));
+          ch.pipeline().addLast("chunkedWriter", new ChunkedWriteHandler());
+          ch.pipeline()
+              .addLast("serverHandle", new SimpleChannelInboundHandler<FullHttpRequest>() {
+
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request)
+                    throws Exception {
+                  Object result = invoke(request.uri(), ctx.channel(), request);
+                  if (result instanceof CompletableFuture) {
+                    //异步处理完成前request不能被释放
+                    request.retain();
+                    ((CompletableFuture<FullHttpResponse>) result).whenComplete((httpResponse, cause) -> {
+                      request.release();
+                      EventLoop eventLoop = ctx.channel().eventLoop();
+                      if (eventLoop.inEventLoop()) {
+                        complete(ctx.channel(), httpResponse, cause);
+                      } else {
+                        eventLoop.execute(() -> complete(ctx.channel(), httpResponse, cause));
                       }
-                    }
-
-                    @Override
-                    public void channelUnregistered(ChannelHandlerContext ctx) {
-                      ctx.channel().close();
-                    }
-
-                    @Override
-                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-                      LOGGER.error("native request error", cause.getCause() == null ? cause : cause.getCause());
-                      Map<String, Object> data = new HashMap<>();
-                      data.put("error", cause.getCause().toString());
-                      FullHttpResponse httpResponse = HttpHandlerUtil.buildJson(data);
-                      httpResponse.setStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
-                      ctx.channel().writeAndFlush(httpResponse);
-                    }
-                  });
-            }
-          });
+                    });
+                  } else {
+                    writeResponse(ctx.channel(), (FullHttpResponse) result);
+                  }
+                }
+
+                @Override
+                public void channelUnregistered(ChannelHandlerContext ctx) {
+                  ctx.channel().close();
+                }
+
+                @Override
+                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                  writeError(ctx.channel(), cause);
+                }
+              });
+        }
+      };
+      ServerBootstrap bootstrap = new ServerBootstrap().group(bossGroup, workGroup)
+          .channel(TransportUtil.serverChannelClass())
+          .childHandler(initializer);
       ChannelFuture f = bootstrap.bind("127.0.0.1", port).sync();
+      //进程内调用走LocalChannel，不经过网络协议栈
+      localChannel = new ServerBootstrap().group(bossGroup, workGroup)
+          .channel(LocalServerChannel.class)
+          .childHandler(initializer)
+          .bind(LOCAL_ADDRESS).sync().channel();
+      //linux下额外监听unix domain socket，供本机脚本和工具免端口调用
+      if (TransportUtil.isEpoll()) {
+        domainSocketChannel = bindDomainSocket(bossGroup, workGroup, initializer);
+      }
       if (startedListener != null) {
         f.addListener(startedListener);
       }
@@ -133,13 +165,69 @@ public class EmbedHttpServer {
     } catch (Exception e) {
       e.printStackTrace();
     } finally {
-      bossGroup.shutdownGracefully();
-      workGroup.shutdownGracefully();
+      if (localChannel != null) {
+        localChannel.close();
+      }
+      if (domainSocketChannel != null) {
+        domainSocketChannel.close();
+      }
+      TransportUtil.shutdown(bossGroup);
+      TransportUtil.shutdown(workGroup);
+    }
+  }
+
+  private Channel bindDomainSocket(EventLoopGroup bossGroup, EventLoopGroup workGroup, ChannelInitializer<Channel> initializer) {
+    File socketFile = new File(DOMAIN_SOCKET_PATH);
+    //上次异常退出时残留的socket文件会导致bind失败
+    if (socketFile.exists()) {
+      socketFile.delete();
+    }
+    try {
+      return new ServerBootstrap().group(bossGroup, workGroup)
+          .channel(EpollServerDomainSocketChannel.class)
+          .childHandler(initializer)
+          .bind(new DomainSocketAddress(socketFile)).sync().channel();
+    } catch (Exception e) {
+      LOGGER.warn("bind unix domain socket error: " + DOMAIN_SOCKET_PATH, e);
+      return null;
+    }
+  }
+
+  private void complete(Channel channel, FullHttpResponse httpResponse, Throwable cause) {
+    if (cause != null) {
+      writeError(channel, cause);
+    } else {
+      writeResponse(channel, httpResponse);
+    }
+  }
+
+  private void writeResponse(Channel channel, FullHttpResponse httpResponse) {
+    if (httpResponse != null) {
+      httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+      httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpResponse.content().readableBytes());
+      channel.writeAndFlush(httpResponse);
+    }
+  }
+
+  private void writeError(Channel channel, Throwable cause) {
+    Throwable error = cause.getCause() == null ? cause : cause.getCause();
+    FullHttpResponse httpResponse;
+    if (error instanceof RejectedExecutionException) {
+      LOGGER.warn("native request rejected, executor is busy");
+      httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
+    } else {
+      LOGGER.error("native request error", error);
+      Map<String, Object> data = new HashMap<>();
+      data.put("error", error.toString());
+      httpResponse = HttpHandlerUtil.buildJson(data);
+      httpResponse.setStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
     }
+    //连接是keep-alive的，需要Content-Length客户端才知道响应已结束
+    writeResponse(channel, httpResponse);
   }
 
   public EmbedHttpServer addController(Object obj) {
-    this.controllerList.add(obj);
+    this.routeTable.register(obj);
     return this;
   }
 
@@ -0,0 +1,177 @@
+package org.pdown.gui.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个路由的统计：请求数、错误数、处理中的请求数、响应大小以及延迟直方图
+ * 计数全部使用LongAdder分段累加，记录时不加锁，只有读取时才汇总
+ */
+public class RouteMetrics {
+
+  //每个2的幂区间再细分8个子桶，相对误差不超过12.5%
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  //延迟以微秒记录，最大统计到2^29us(约537秒)，超出的记在最后一个桶
+  private static final int MAX_MAGNITUDE = 28;
+  private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  private final String path;
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder inFlight = new LongAdder();
+  private final LongAdder latencySum = new LongAdder();
+  private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+  private final LongAdder responseBytes = new LongAdder();
+
+  public RouteMetrics(String path) {
+    this.path = path;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * 请求开始，返回开始时间给end使用
+   */
+  public long start() {
+    inFlight.increment();
+    return System.nanoTime();
+  }
+
+  /**
+   * 请求结束
+   *
+   * @param startTime start()的返回值
+   * @param bytes 响应体大小，未知时传-1
+   * @param error 是否处理失败
+   */
+  public void end(long startTime, long bytes, boolean error) {
+    long micros = Math.max(0, (System.nanoTime() - startTime) / 1000);
+    inFlight.decrement();
+    count.increment();
+    latencySum.add(micros);
+    latencyMax.accumulate(micros);
+    buckets[bucketIndex(micros)].increment();
+    if (bytes > 0) {
+      responseBytes.add(bytes);
+    }
+    if (error) {
+      errors.increment();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  public long getInFlight() {
+    return inFlight.sum();
+  }
+
+  public long getResponseBytes() {
+    return responseBytes.sum();
+  }
+
+  /**
+   * 延迟总和，单位微秒
+   */
+  public long getLatencySum() {
+    return latencySum.sum();
+  }
+
+  /**
+   * 最大延迟，单位微秒
+   */
+  public long getLatencyMax() {
+    return latencyMax.get();
+  }
+
+  /**
+   * 各个桶的计数快照
+   */
+  public long[] snapshot() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  /**
+   * 根据快照计算百分位延迟，单位微秒
+   */
+  public static long percentile(long[] counts, double percentile) {
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return bucketUpperBound(i);
+      }
+    }
+    return bucketUpperBound(counts.length - 1);
+  }
+
+  /**
+   * 桶能容纳的最大值(包含)，单位微秒
+   */
+  public static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int magnitude = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+    long subBucket = index & (SUB_BUCKET_COUNT - 1);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+
+  //小于8的值直接对应下标，之后按最高位所在的区间+次高3位确定子桶
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    if (magnitude > MAX_MAGNITUDE) {
+      return BUCKET_COUNT - 1;
+    }
+    int shift = magnitude - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+    return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+  }
+
+  public Map<String, Object> toMap() {
+    long[] counts = snapshot();
+    long total = getCount();
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("path", path);
+    data.put("count", total);
+    data.put("errors", getErrors());
+    data.put("inFlight", getInFlight());
+    data.put("responseBytes", getResponseBytes());
+    data.put("meanMicros", total == 0 ? 0 : getLatencySum() / total);
+    data.put("p50Micros", percentile(counts, 50));
+    data.put("p90Micros", percentile(counts, 90));
+    data.put("p99Micros", percentile(counts, 99));
+    data.put("maxMicros", getLatencyMax());
+    return data;
+  }
+}
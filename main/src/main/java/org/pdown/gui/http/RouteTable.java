@@ -0,0 +1,289 @@
+package org.pdown.gui.http;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+/**
+ * 预编译的路由表，注册controller时解析一次@RequestMapping，请求时直接查表分发
+ * 无占位符的路由走大小写不敏感的hash表，带{param}占位符的路由走按路径段划分的字典树
+ */
+public class RouteTable {
+
+  private static final MethodType HANDLE_TYPE = MethodType.methodType(Object.class, Channel.class, FullHttpRequest.class);
+
+  private Route[] exactRoutes = new Route[64];
+  private int exactSize;
+  private final Node root = new Node(null);
+
+  /**
+   * 解析controller上的@RequestMapping并注册所有action
+   */
+  public void register(Object controller) {
+    Class<?> clazz = controller.getClass();
+    RequestMapping mapping = clazz.getAnnotation(RequestMapping.class);
+    if (mapping == null) {
+      return;
+    }
+    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    for (Method actionMethod : clazz.getMethods()) {
+      RequestMapping subMapping = actionMethod.getAnnotation(RequestMapping.class);
+      if (subMapping == null) {
+        continue;
+      }
+      MethodHandle handle;
+      try {
+        handle = lookup.unreflect(actionMethod).bindTo(controller).asType(HANDLE_TYPE);
+      } catch (IllegalAccessException | RuntimeException e) {
+        throw new IllegalArgumentException("Unsupported action method " + actionMethod, e);
+      }
+      for (String mappingUri : mapping.value()) {
+        for (String subMappingUri : subMapping.value()) {
+          add(new Route(fixUri(mappingUri) + fixUri(subMappingUri), handle));
+        }
+      }
+    }
+  }
+
+  /**
+   * 根据请求uri查找路由，忽略query string和大小写，找不到返回null
+   */
+  public Route find(String uri) {
+    int end = pathEnd(uri);
+    Route route = findExact(uri, end);
+    if (route == null && root.hasChildren()) {
+      route = findTemplate(root, uri, 1, end);
+    }
+    return route;
+  }
+
+  private void add(Route route) {
+    if (route.paramNames == null) {
+      if ((exactSize + 1) * 2 > exactRoutes.length) {
+        resize();
+      }
+      putExact(exactRoutes, route);
+      exactSize++;
+    } else {
+      Node node = root;
+      for (String segment : route.segments) {
+        node = node.child(segment);
+      }
+      node.route = route;
+    }
+  }
+
+  private Route findExact(String uri, int end) {
+    int mask = exactRoutes.length - 1;
+    int index = hash(uri, 0, end) & mask;
+    Route route;
+    while ((route = exactRoutes[index]) != null) {
+      String path = route.path;
+      if (path.length() == end && path.regionMatches(true, 0, uri, 0, end)) {
+        return route;
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  //按路径段递归匹配，字面量优先于占位符
+  private Route findTemplate(Node node, String uri, int start, int end) {
+    if (start > end) {
+      return node.route;
+    }
+    int segmentEnd = uri.indexOf('/', start);
+    if (segmentEnd == -1 || segmentEnd > end) {
+      segmentEnd = end;
+    }
+    int length = segmentEnd - start;
+    for (int i = 0; i < node.children.size(); i++) {
+      Node child = node.children.get(i);
+      if (child.segment.length() == length
+          && child.segment.regionMatches(true, 0, uri, start, length)) {
+        Route route = findTemplate(child, uri, segmentEnd + 1, end);
+        if (route != null) {
+          return route;
+        }
+      }
+    }
+    if (node.paramChild != null && length > 0) {
+      return findTemplate(node.paramChild, uri, segmentEnd + 1, end);
+    }
+    return null;
+  }
+
+  private void resize() {
+    Route[] newRoutes = new Route[exactRoutes.length << 1];
+    for (Route route : exactRoutes) {
+      if (route != null) {
+        putExact(newRoutes, route);
+      }
+    }
+    exactRoutes = newRoutes;
+  }
+
+  private static void putExact(Route[] routes, Route route) {
+    int mask = routes.length - 1;
+    int index = hash(route.path, 0, route.path.length()) & mask;
+    while (routes[index] != null) {
+      if (routes[index].path.equalsIgnoreCase(route.path)) {
+        throw new IllegalStateException("Duplicate request mapping " + route.path);
+      }
+      index = (index + 1) & mask;
+    }
+    routes[index] = route;
+  }
+
+  //ascii大小写不敏感的hash
+  private static int hash(String str, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      char c = str.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 32;
+      }
+      h = 31 * h + c;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static int pathEnd(String uri) {
+    for (int i = 0; i < uri.length(); i++) {
+      char c = uri.charAt(i);
+      if (c == '?' || c == '#') {
+        return i;
+      }
+    }
+    return uri.length();
+  }
+
+  private static String fixUri(String uri) {
+    StringBuilder builder = new StringBuilder(uri);
+    if (builder.indexOf("/") != 0) {
+      builder.insert(0, "/");
+    }
+    if (builder.lastIndexOf("/") == builder.length() - 1) {
+      builder.delete(builder.length() - 1, builder.length());
+    }
+    return builder.toString();
+  }
+
+  public static class Route {
+
+    private final String path;
+    private final String[] segments;
+    //占位符名称，按路径段下标存放，没有占位符时为null
+    private final String[] paramNames;
+    private final MethodHandle handle;
+    private final RouteMetrics metrics;
+
+    Route(String path, MethodHandle handle) {
+      this.path = path;
+      this.handle = handle;
+      this.metrics = MetricsUtil.register(path);
+      this.segments = path.length() > 1 ? path.substring(1).split("/") : new String[0];
+      String[] names = null;
+      for (int i = 0; i < segments.length; i++) {
+        String segment = segments[i];
+        if (segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+          if (names == null) {
+            names = new String[segments.length];
+          }
+          names[i] = segment.substring(1, segment.length() - 1);
+        }
+      }
+      this.paramNames = names;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public RouteMetrics getMetrics() {
+      return metrics;
+    }
+
+    public boolean hasPathVariables() {
+      return paramNames != null;
+    }
+
+    /**
+     * 从请求uri中取出占位符对应的值
+     */
+    public Map<String, String> getPathVariables(String uri) {
+      Map<String, String> variables = new HashMap<>();
+      if (paramNames != null) {
+        int end = pathEnd(uri);
+        int start = 1;
+        for (int i = 0; i < paramNames.length && start <= end; i++) {
+          int segmentEnd = uri.indexOf('/', start);
+          if (segmentEnd == -1 || segmentEnd > end) {
+            segmentEnd = end;
+          }
+          if (paramNames[i] != null) {
+            variables.put(paramNames[i], uri.substring(start, segmentEnd));
+          }
+          start = segmentEnd + 1;
+        }
+      }
+      return variables;
+    }
+
+    /**
+     * 返回FullHttpResponse或者CompletableFuture&lt;FullHttpResponse&gt;
+     */
+    public Object invoke(Channel channel, FullHttpRequest request) throws Exception {
+      try {
+        return handle.invokeExact(channel, request);
+      } catch (Exception | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new UndeclaredThrowableException(e);
+      }
+    }
+  }
+
+  private static class Node {
+
+    private final String segment;
+    private final List<Node> children = new ArrayList<>();
+    private Node paramChild;
+    private Route route;
+
+    Node(String segment) {
+      this.segment = segment;
+    }
+
+    boolean hasChildren() {
+      return children.size() > 0 || paramChild != null;
+    }
+
+    Node child(String segment) {
+      if (segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}")) {
+        if (paramChild == null) {
+          paramChild = new Node(null);
+        }
+        return paramChild;
+      }
+      for (Node child : children) {
+        if (child.segment.equalsIgnoreCase(segment)) {
+          return child;
+        }
+      }
+      Node child = new Node(segment);
+      children.add(child);
+      return child;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.pdown.gui.http.controller;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -9,21 +11,69 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.util.AsciiString;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import org.pdown.gui.http.util.FileResponseUtil;
+import org.pdown.rest.util.PathUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 @RequestMapping("/")
 public class DefaultController {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(DefaultController.class);
+
+  private static final String RESOURCE_ROOT = "http";
+  //超过这个大小的文件(比如source map)不放进缓存，请求时直接读取
+  private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
+  //webpack打包后文件名带有hash，内容不会变化
+  private static final Pattern HASHED_NAME = Pattern.compile("^.*\\.[0-9a-f]{8,}\\.[0-9a-z]+$");
+  private static final AsciiString CACHE_IMMUTABLE = AsciiString.cached("public, max-age=31536000, immutable");
+  private static final AsciiString GZIP_ETAG_SUFFIX = AsciiString.cached("-gz\"");
+
+  private final Map<String, Asset> assets = new HashMap<>();
+  //前端页面以目录形式存在时(开发环境或绿色版)直接从磁盘读取
+  private final File assetDir;
+
+  public DefaultController() {
+    assetDir = findAssetDir();
+    if (assetDir == null) {
+      loadAssets();
+    }
+  }
+
   public FullHttpResponse handle(Channel channel, FullHttpRequest request) throws Exception {
     URI uri = new URI(request.uri());
     String path = uri.getPath();
     if ("/".equals(path)) {
       path = "/index.html";
     }
+    if (assetDir != null) {
+      File file = new File(assetDir, path).getCanonicalFile();
+      if (file.isFile() && file.getPath().startsWith(assetDir.getPath() + File.separator)) {
+        FileResponseUtil.write(channel, request, file, contentType(file.getName().substring(file.getName().lastIndexOf(".") + 1).toLowerCase()));
+        return null;
+      }
+    }
+    Asset asset = assets.get(path);
+    if (asset != null) {
+      return asset.buildResponse(request);
+    }
     InputStream inputStream = Thread.currentThread().getContextClassLoader()
-        .getResourceAsStream("http" + path);
+        .getResourceAsStream(RESOURCE_ROOT + path);
     FullHttpResponse httpResponse;
     if (inputStream != null) {
       String mime = path.substring(path.lastIndexOf(".") + 1);
@@ -46,50 +96,230 @@ public class DefaultController {
     return httpResponse;
   }
 
+  /**
+   * 程序目录下有http文件夹或者classpath中的http目录不在jar包里时，返回对应的磁盘目录
+   */
+  private File findAssetDir() {
+    try {
+      File dir = new File(PathUtil.ROOT_PATH + File.separator + RESOURCE_ROOT);
+      if (!dir.isDirectory()) {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(RESOURCE_ROOT);
+        if (url == null || !"file".equals(url.getProtocol())) {
+          return null;
+        }
+        dir = new File(url.toURI());
+      }
+      return dir.isDirectory() ? dir.getCanonicalFile() : null;
+    } catch (Exception e) {
+      LOGGER.warn("find static assets dir error", e);
+      return null;
+    }
+  }
+
+  /**
+   * 启动时把http目录下的静态资源读入内存，同时生成gzip压缩版本和ETag
+   */
+  private void loadAssets() {
+    try {
+      PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+      Resource root = resolver.getResource("classpath:" + RESOURCE_ROOT + "/");
+      if (!root.exists()) {
+        return;
+      }
+      String rootUrl = root.getURL().toString();
+      for (Resource resource : resolver.getResources("classpath*:" + RESOURCE_ROOT + "/**")) {
+        String url = resource.getURL().toString();
+        if (!url.startsWith(rootUrl) || url.endsWith("/") || !resource.isReadable()) {
+          continue;
+        }
+        byte[] bts;
+        try (
+            InputStream inputStream = resource.getInputStream()
+        ) {
+          bts = readAll(inputStream);
+        } catch (IOException e) {
+          //目录或者无法读取的资源
+          continue;
+        }
+        if (bts.length > MAX_CACHE_SIZE) {
+          continue;
+        }
+        String path = "/" + url.substring(rootUrl.length());
+        assets.put(path, new Asset(path, bts));
+      }
+      LOGGER.debug("static assets cached: " + assets.size());
+    } catch (Exception e) {
+      LOGGER.warn("load static assets error", e);
+    }
+  }
+
+  private static byte[] readAll(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] bts = new byte[8192];
+    int len;
+    while ((len = inputStream.read(bts)) != -1) {
+      outputStream.write(bts, 0, len);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] bts) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bts.length / 2);
+    try (
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)
+    ) {
+      gzipOutputStream.write(bts);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static String hash(byte[] bts) throws NoSuchAlgorithmException {
+    MessageDigest md = MessageDigest.getInstance("SHA-1");
+    StringBuilder str = new StringBuilder();
+    for (byte b : md.digest(bts)) {
+      str.append(String.format("%02x", b & 0xFF));
+    }
+    return str.toString();
+  }
+
+  private static ByteBuf toDirectBuffer(byte[] bts) {
+    ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.directBuffer(bts.length, bts.length);
+    byteBuf.writeBytes(bts);
+    return byteBuf;
+  }
+
+  private static boolean isCompressible(String mime) {
+    switch (mime) {
+      case "txt":
+      case "text":
+      case "html":
+      case "htm":
+      case "css":
+      case "js":
+      case "json":
+      case "map":
+      case "svg":
+      case "ttf":
+      case "eot":
+      case "ico":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean acceptGzip(FullHttpRequest request) {
+    String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+    return acceptEncoding != null
+        && acceptEncoding.contains(HttpHeaderValues.GZIP)
+        && !acceptEncoding.contains("gzip;q=0");
+  }
+
+  /**
+   * 内存中缓存的静态资源，buffer常驻不释放，响应时使用retainedDuplicate共享同一份数据
+   */
+  private static class Asset {
+
+    private final AsciiString contentType;
+    private final AsciiString cacheControl;
+    private final String hash;
+    private final AsciiString etag;
+    private final AsciiString gzipEtag;
+    private final ByteBuf content;
+    private final ByteBuf gzipContent;
+
+    Asset(String path, byte[] bts) throws IOException, NoSuchAlgorithmException {
+      String mime = path.substring(path.lastIndexOf(".") + 1).toLowerCase();
+      this.contentType = contentType(mime);
+      this.cacheControl = HASHED_NAME.matcher(path).matches() ? CACHE_IMMUTABLE : HttpHeaderValues.NO_CACHE;
+      this.hash = hash(bts);
+      this.etag = AsciiString.cached("\"" + hash + "\"");
+      this.gzipEtag = AsciiString.cached("\"" + hash + GZIP_ETAG_SUFFIX);
+      this.content = toDirectBuffer(bts);
+      ByteBuf gzipBuf = null;
+      if (isCompressible(mime)) {
+        byte[] gzipBts = gzip(bts);
+        //压缩效果不明显的就不用了
+        if (gzipBts.length < bts.length * 0.9) {
+          gzipBuf = toDirectBuffer(gzipBts);
+        }
+      }
+      this.gzipContent = gzipBuf;
+    }
+
+    FullHttpResponse buildResponse(FullHttpRequest request) {
+      boolean gzip = gzipContent != null && acceptGzip(request);
+      String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+      FullHttpResponse httpResponse;
+      if (ifNoneMatch != null && (ifNoneMatch.contains(hash) || "*".equals(ifNoneMatch.trim()))) {
+        httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+      } else {
+        httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+            gzip ? gzipContent.retainedDuplicate() : content.retainedDuplicate());
+        httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        if (gzip) {
+          httpResponse.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+        }
+      }
+      httpResponse.headers().set(HttpHeaderNames.ETAG, gzip ? gzipEtag : etag);
+      httpResponse.headers().set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+      if (gzipContent != null) {
+        httpResponse.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+      }
+      return httpResponse;
+    }
+  }
+
   private void buildHead(FullHttpResponse httpResponse, String mime) {
     if (mime != null) {
-      AsciiString contentType;
-      switch (mime) {
-        case "txt":
-        case "text":
-          contentType = AsciiString.cached("text/plain; charset=utf-8");
-          break;
-        case "html":
-        case "htm":
-          contentType = AsciiString.cached("text/html; charset=utf-8");
-          break;
-        case "css":
-          contentType = AsciiString.cached("text/css; charset=utf-8");
-          break;
-        case "js":
-          contentType = AsciiString.cached("application/javascript; charset=utf-8");
-          break;
-        case "png":
-          contentType = AsciiString.cached("image/png");
-          break;
-        case "jpg":
-        case "jpeg":
-          contentType = AsciiString.cached("image/jpeg");
-          break;
-        case "bmp":
-          contentType = AsciiString.cached("application/x-bmp");
-          break;
-        case "gif":
-          contentType = AsciiString.cached("image/gif");
-          break;
-        case "ico":
-          contentType = AsciiString.cached("image/x-icon");
-          break;
-        case "ttf":
-          contentType = AsciiString.cached("font/ttf; charset=utf-8");
-          break;
-        case "woff":
-          contentType = AsciiString.cached("application/font-woff; charset=utf-8");
-          break;
-        default:
-          contentType = HttpHeaderValues.APPLICATION_OCTET_STREAM;
-      }
-      httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+      httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType(mime));
+    }
+  }
+
+  private static AsciiString contentType(String mime) {
+    switch (mime) {
+      case "txt":
+      case "text":
+        return AsciiString.cached("text/plain; charset=utf-8");
+      case "html":
+      case "htm":
+        return AsciiString.cached("text/html; charset=utf-8");
+      case "css":
+        return AsciiString.cached("text/css; charset=utf-8");
+      case "js":
+        return AsciiString.cached("application/javascript; charset=utf-8");
+      case "json":
+      case "map":
+        return AsciiString.cached("application/json; charset=utf-8");
+      case "png":
+        return AsciiString.cached("image/png");
+      case "jpg":
+      case "jpeg":
+        return AsciiString.cached("image/jpeg");
+      case "bmp":
+        return AsciiString.cached("application/x-bmp");
+      case "gif":
+        return AsciiString.cached("image/gif");
+      case "ico":
+        return AsciiString.cached("image/x-icon");
+      case "svg":
+        return AsciiString.cached("image/svg+xml");
+      case "ttf":
+        return AsciiString.cached("font/ttf; charset=utf-8");
+      case "woff":
+        return AsciiString.cached("application/font-woff; charset=utf-8");
+      case "woff2":
+        return AsciiString.cached("font/woff2");
+      case "eot":
+        return AsciiString.cached("application/vnd.ms-fontobject");
+      case "mp4":
+        return AsciiString.cached("video/mp4");
+      case "webm":
+        return AsciiString.cached("video/webm");
+      case "mp3":
+        return AsciiString.cached("audio/mpeg");
+      default:
+        return HttpHeaderValues.APPLICATION_OCTET_STREAM;
     }
   }
 }
@@ -2,13 +2,14 @@ package org.pdown.gui.http.controller;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import java.awt.Desktop;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
@@ -18,10 +19,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.function.Function;
 import javafx.application.Platform;
@@ -44,7 +45,11 @@ import org.pdown.gui.extension.mitm.server.PDownProxyServer;
 import org.pdown.gui.extension.mitm.util.ExtensionCertUtil;
 import org.pdown.gui.extension.mitm.util.ExtensionProxyUtil;
 import org.pdown.gui.extension.util.ExtensionUtil;
+import org.pdown.gui.http.util.AsyncUtil;
 import org.pdown.gui.http.util.HttpHandlerUtil;
+import org.pdown.gui.http.util.JsonCache;
+import org.pdown.gui.http.util.MetricsUtil;
+import org.pdown.gui.http.util.PushUtil;
 import org.pdown.gui.util.AppUtil;
 import org.pdown.gui.util.ConfigUtil;
 import org.pdown.gui.util.ExecUtil;
@@ -61,53 +66,64 @@ import org.springframework.web.bind.annotation.RequestMapping;
 public class NativeController {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(NativeController.class);
+  private static final ObjectReader CONFIG_READER = HttpHandlerUtil.reader(PDownConfigInfo.class)
+      .with(DeserializationFeature.READ_ENUMS_USING_TO_STRING);
 
   @RequestMapping("dirChooser")
-  public FullHttpResponse dirChooser(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> dirChooser(Channel channel, FullHttpRequest request) throws Exception {
+    CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
     Platform.runLater(() -> {
-      File file = Components.dirChooser();
-      Map<String, Object> data = null;
-      if (file != null) {
-        data = new HashMap<>();
-        data.put("path", file.getPath());
-        data.put("canWrite", file.canWrite());
-        data.put("freeSpace", file.getFreeSpace());
-        data.put("totalSpace", file.getTotalSpace());
+      try {
+        File file = Components.dirChooser();
+        Map<String, Object> data = null;
+        if (file != null) {
+          data = new HashMap<>();
+          data.put("path", file.getPath());
+          data.put("canWrite", file.canWrite());
+          data.put("freeSpace", file.getFreeSpace());
+          data.put("totalSpace", file.getTotalSpace());
+        }
+        future.complete(HttpHandlerUtil.buildJson(data));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
       }
-      HttpHandlerUtil.writeJson(channel, data);
     });
-    return null;
+    return future;
   }
 
   @RequestMapping("fileChooser")
-  public FullHttpResponse handle(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> handle(Channel channel, FullHttpRequest request) throws Exception {
+    CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
     Platform.runLater(() -> {
-      File file = Components.fileChooser();
-      Map<String, Object> data = null;
-      if (file != null) {
-        data = new HashMap<>();
-        data.put("name", file.getName());
-        data.put("path", file.getPath());
-        data.put("parent", file.getParent());
-        data.put("size", file.length());
+      try {
+        File file = Components.fileChooser();
+        Map<String, Object> data = null;
+        if (file != null) {
+          data = new HashMap<>();
+          data.put("name", file.getName());
+          data.put("path", file.getPath());
+          data.put("parent", file.getParent());
+          data.put("size", file.length());
+        }
+        future.complete(HttpHandlerUtil.buildJson(data));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
       }
-      HttpHandlerUtil.writeJson(channel, data);
     });
-    return null;
+    return future;
   }
 
   //启动的时候检查一次
   private boolean checkFlag = true;
+  //按版本号缓存的json响应
+  private final JsonCache initConfigCache = new JsonCache();
+  private final JsonCache configCache = new JsonCache();
+  private final JsonCache extensionsCache = new JsonCache();
   private static final long WEEK = 7 * 24 * 60 * 60 * 1000L;
 
   @RequestMapping("getInitConfig")
   public FullHttpResponse getInitConfig(Channel channel, FullHttpRequest request) throws Exception {
-    Map<String, Object> data = new HashMap<>();
     PDownConfigInfo configInfo = PDownConfigContent.getInstance().get();
-    //语言
-    data.put("locale", configInfo.getLocale());
-    //后台管理API请求地址
-    data.put("adminServer", ConfigUtil.getString("adminServer"));
     //是否要检查更新
     boolean needCheckUpdate = false;
     if (checkFlag) {
@@ -120,24 +136,36 @@ public class NativeController {
         PDownConfigContent.getInstance().save();
       }
     }
+    if (needCheckUpdate) {
+      //只会出现一次，不缓存
+      return HttpHandlerUtil.buildJson(buildInitConfig(configInfo, true));
+    }
+    return initConfigCache.build(request, PDownConfigContent.getInstance().getVersion(), () -> buildInitConfig(configInfo, false));
+  }
+
+  private Map<String, Object> buildInitConfig(PDownConfigInfo configInfo, boolean needCheckUpdate) {
+    Map<String, Object> data = new HashMap<>();
+    //语言
+    data.put("locale", configInfo.getLocale());
+    //后台管理API请求地址
+    data.put("adminServer", ConfigUtil.getString("adminServer"));
     data.put("needCheckUpdate", needCheckUpdate);
     //扩展下载服务器列表
     data.put("extFileServers", configInfo.getExtFileServers());
     //软件版本
     data.put("version", ConfigUtil.getString("version"));
-    return HttpHandlerUtil.buildJson(data);
+    return data;
   }
 
   @RequestMapping("getConfig")
   public FullHttpResponse getConfig(Channel channel, FullHttpRequest request) throws Exception {
-    return HttpHandlerUtil.buildJson(PDownConfigContent.getInstance().get());
+    PDownConfigContent configContent = PDownConfigContent.getInstance();
+    return configCache.build(request, configContent.getVersion(), configContent::get);
   }
 
   @RequestMapping("setConfig")
   public FullHttpResponse setConfig(Channel channel, FullHttpRequest request) throws Exception {
-    ObjectMapper objectMapper = new ObjectMapper();
-    objectMapper.enable(DeserializationFeature.READ_ENUMS_USING_TO_STRING);
-    PDownConfigInfo configInfo = objectMapper.readValue(request.content().toString(Charset.forName("UTF-8")), PDownConfigInfo.class);
+    PDownConfigInfo configInfo = HttpHandlerUtil.readJson(request, CONFIG_READER);
     PDownConfigInfo beforeConfigInfo = PDownConfigContent.getInstance().get();
     boolean proxyChange = (beforeConfigInfo.getProxyConfig() != null && configInfo.getProxyConfig() == null) ||
         (configInfo.getProxyConfig() != null && beforeConfigInfo.getProxyConfig() == null) ||
@@ -149,32 +177,35 @@ public class NativeController {
       DownApplication.INSTANCE.loadPopupMenu();
       DownApplication.INSTANCE.refreshBrowserMenu();
     }
-    //检查到前置代理有变动重启MITM代理服务器
-    if (proxyChange && PDownProxyServer.isStart) {
-      new Thread(() -> {
-        PDownProxyServer.close();
-        PDownProxyServer.start(DownApplication.INSTANCE.PROXY_PORT);
-      }).start();
+    //前置代理和线程数的变化直接替换MITM代理服务器新连接使用的配置，不需要重启
+    if (PDownProxyServer.isStart) {
+      if (proxyChange) {
+        PDownProxyServer.setProxyConfig(PDownConfigInfo.convert(beforeConfigInfo.getProxyConfig()));
+      }
+      PDownProxyServer.refresh(false);
     }
     PDownConfigContent.getInstance().save();
+    PushUtil.publish("config", beforeConfigInfo);
     return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
   }
 
   @RequestMapping("showFile")
-  public FullHttpResponse showFile(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> showFile(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String path = (String) map.get("path");
-    if (!StringUtils.isEmpty(path)) {
-      File file = new File(path);
-      if (!file.exists() || OsUtil.isUnix()) {
-        Desktop.getDesktop().open(file.getParentFile());
-      } else if (OsUtil.isWindows()) {
-        ExecUtil.execBlock("explorer.exe", "/select,", file.getPath());
-      } else if (OsUtil.isMac()) {
-        ExecUtil.execBlock("open", "-R", file.getPath());
+    return AsyncUtil.supply(() -> {
+      if (!StringUtils.isEmpty(path)) {
+        File file = new File(path);
+        if (!file.exists() || OsUtil.isUnix()) {
+          Desktop.getDesktop().open(file.getParentFile());
+        } else if (OsUtil.isWindows()) {
+          ExecUtil.execBlock("explorer.exe", "/select,", file.getPath());
+        } else if (OsUtil.isMac()) {
+          ExecUtil.execBlock("open", "-R", file.getPath());
+        }
       }
-    }
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   @RequestMapping("openUrl")
@@ -188,20 +219,26 @@ public class NativeController {
   private static volatile HttpDownBootstrap updateBootstrap;
 
   @RequestMapping("doUpdate")
-  public FullHttpResponse doUpdate(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> doUpdate(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String url = (String) map.get("path");
     String path = PathUtil.ROOT_PATH + File.separator + "proxyee-down-main.jar.tmp";
-    try {
+    return AsyncUtil.supply(() -> {
       File updateTmpJar = new File(path);
       if (updateTmpJar.exists()) {
         updateTmpJar.delete();
       }
       updateBootstrap = AppUtil.fastDownload(url, updateTmpJar, new HttpDownCallback() {
+        @Override
+        public void onProgress(HttpDownBootstrap httpDownBootstrap) {
+          PushUtil.publish("updateProgress", buildUpdateProgress(httpDownBootstrap));
+        }
+
         @Override
         public void onDone(HttpDownBootstrap httpDownBootstrap) {
           File updateBakJar = new File(updateTmpJar.getParent() + File.separator + "proxyee-down-main.jar.bak");
           updateTmpJar.renameTo(updateBakJar);
+          PushUtil.publish("updateProgress", buildUpdateProgress(httpDownBootstrap));
         }
 
         @Override
@@ -211,26 +248,52 @@ public class NativeController {
             file.delete();
           }
           httpDownBootstrap.close();
+          PushUtil.publish("updateProgress", buildUpdateProgress(httpDownBootstrap));
         }
       });
-    } catch (Exception e) {
-      throw e;
-    }
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+      //覆盖上一次更新留下的进度
+      PushUtil.publish("updateProgress", buildUpdateProgress(updateBootstrap));
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   @RequestMapping("getUpdateProgress")
   public FullHttpResponse getUpdateProgress(Channel channel, FullHttpRequest request) throws Exception {
+    return HttpHandlerUtil.buildJson(buildUpdateProgress(updateBootstrap));
+  }
+
+  private Map<String, Object> buildUpdateProgress(HttpDownBootstrap bootstrap) {
     Map<String, Object> data = new HashMap<>();
-    if (updateBootstrap != null) {
-      data.put("status", updateBootstrap.getTaskInfo().getStatus());
-      data.put("totalSize", updateBootstrap.getResponse().getTotalSize());
-      data.put("downSize", updateBootstrap.getTaskInfo().getDownSize());
-      data.put("speed", updateBootstrap.getTaskInfo().getSpeed());
+    if (bootstrap != null) {
+      data.put("status", bootstrap.getTaskInfo().getStatus());
+      data.put("totalSize", bootstrap.getResponse().getTotalSize());
+      data.put("downSize", bootstrap.getTaskInfo().getDownSize());
+      data.put("speed", bootstrap.getTaskInfo().getSpeed());
     } else {
       data.put("status", 0);
     }
-    return HttpHandlerUtil.buildJson(data);
+    return data;
+  }
+
+  /**
+   * 接口统计，默认输出Prometheus文本格式，format=json时输出json快照
+   */
+  @RequestMapping("metrics")
+  public FullHttpResponse metrics(Channel channel, FullHttpRequest request) throws Exception {
+    List<String> format = new QueryStringDecoder(request.uri()).parameters().get("format");
+    if (format != null && format.contains("json")) {
+      return HttpHandlerUtil.buildJson(MetricsUtil.snapshot());
+    }
+    return HttpHandlerUtil.buildContent(MetricsUtil.toPrometheus(), "text/plain; version=0.0.4; charset=utf-8");
+  }
+
+  /**
+   * 订阅native事件推送(SSE)，连接保持打开直到前端关闭
+   */
+  @RequestMapping("events")
+  public FullHttpResponse events(Channel channel, FullHttpRequest request) throws Exception {
+    PushUtil.subscribe(channel);
+    return null;
   }
 
   @RequestMapping("doRestart")
@@ -244,16 +307,16 @@ public class NativeController {
    */
   @RequestMapping("getExtensions")
   public FullHttpResponse getExtensions(Channel channel, FullHttpRequest request) throws Exception {
-    //刷新扩展信息
+    //刷新扩展信息，扩展目录没有变化时不会重新解析
     ExtensionContent.load();
-    return HttpHandlerUtil.buildJson(ExtensionContent.get());
+    return extensionsCache.build(request, ExtensionContent.getVersion(), ExtensionContent::get);
   }
 
   /**
    * 安装扩展
    */
   @RequestMapping("installExtension")
-  public FullHttpResponse installExtension(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> installExtension(Channel channel, FullHttpRequest request) throws Exception {
     return extensionCommon(request, false);
   }
 
@@ -261,7 +324,7 @@ public class NativeController {
    * 更新扩展
    */
   @RequestMapping("updateExtension")
-  public FullHttpResponse updateExtension(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> updateExtension(Channel channel, FullHttpRequest request) throws Exception {
     return extensionCommon(request, true);
   }
 
@@ -269,73 +332,85 @@ public class NativeController {
    * 加载本地扩展
    */
   @RequestMapping("installLocalExtension")
-  public FullHttpResponse installLocalExtension(Channel channel, FullHttpRequest request) throws Exception {
-    Map<String, Object> data = new HashMap<>();
+  public CompletableFuture<FullHttpResponse> installLocalExtension(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String path = (String) map.get("path");
-    //刷新扩展content
-    ExtensionInfo loadExt = ExtensionContent.refresh(path, true);
-    if (loadExt == null) {
-      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
-    }
-    data.put("data", loadExt);
-    //刷新系统pac代理
-    AppUtil.refreshPAC();
-    return HttpHandlerUtil.buildJson(data);
+    return AsyncUtil.supply(() -> {
+      Map<String, Object> data = new HashMap<>();
+      //刷新扩展content
+      ExtensionInfo loadExt = ExtensionContent.refresh(path, true);
+      if (loadExt == null) {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
+      }
+      data.put("data", loadExt);
+      //刷新系统pac代理
+      AppUtil.refreshPAC();
+      PushUtil.publish("extensions", ExtensionContent.get());
+      return HttpHandlerUtil.buildJson(data);
+    });
   }
 
   /**
    * 卸载扩展
    */
   @RequestMapping("uninstallExtension")
-  public FullHttpResponse uninstallExtension(Channel channel, FullHttpRequest request) throws Exception {
-    Map<String, Object> data = new HashMap<>();
+  public CompletableFuture<FullHttpResponse> uninstallExtension(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String path = (String) map.get("path");
     boolean local = map.get("local") != null ? (boolean) map.get("local") : false;
-    //卸载扩展
-    ExtensionContent.remove(path, local);
-    //刷新系统pac代理
-    AppUtil.refreshPAC();
-    return HttpHandlerUtil.buildJson(data);
+    return AsyncUtil.supply(() -> {
+      Map<String, Object> data = new HashMap<>();
+      //卸载扩展
+      ExtensionContent.remove(path, local);
+      //刷新系统pac代理
+      AppUtil.refreshPAC();
+      PushUtil.publish("extensions", ExtensionContent.get());
+      return HttpHandlerUtil.buildJson(data);
+    });
   }
 
-  private FullHttpResponse extensionCommon(FullHttpRequest request, boolean isUpdate) throws Exception {
+  private CompletableFuture<FullHttpResponse> extensionCommon(FullHttpRequest request, boolean isUpdate) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String server = (String) map.get("server");
     String path = (String) map.get("path");
     String files = (String) map.get("files");
-    if (isUpdate) {
-      ExtensionUtil.update(server, path, files);
-    } else {
-      ExtensionUtil.install(server, path, files);
-    }
-    //刷新扩展content
-    ExtensionContent.refresh(path);
-    //刷新系统pac代理
-    AppUtil.refreshPAC();
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    return AsyncUtil.supply(() -> {
+      if (isUpdate) {
+        ExtensionUtil.update(server, path, files);
+      } else {
+        ExtensionUtil.install(server, path, files);
+      }
+      //刷新扩展content
+      ExtensionContent.refresh(path);
+      //刷新系统pac代理
+      AppUtil.refreshPAC();
+      PushUtil.publish("extensions", ExtensionContent.get());
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   /**
    * 启用或禁用插件
    */
   @RequestMapping("toggleExtension")
-  public FullHttpResponse toggleExtension(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> toggleExtension(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     String path = (String) map.get("path");
     boolean enabled = (boolean) map.get("enabled");
     boolean local = map.get("local") != null ? (boolean) map.get("local") : false;
-    ExtensionInfo extensionInfo = ExtensionContent.get()
-        .stream()
-        .filter(e -> e.getMeta().getPath().equals(path))
-        .findFirst()
-        .get();
-    extensionInfo.getMeta().setEnabled(enabled).save();
-    //刷新pac
-    ExtensionContent.refresh(extensionInfo.getMeta().getFullPath(), local);
-    AppUtil.refreshPAC();
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    return AsyncUtil.supply(() -> {
+      ExtensionInfo extensionInfo = ExtensionContent.get()
+          .stream()
+          .filter(e -> e.getMeta().getPath().equals(path))
+          .findFirst()
+          .get();
+      extensionInfo.getMeta().setEnabled(enabled).save();
+      //刷新pac
+      ExtensionContent.refresh(extensionInfo.getMeta().getFullPath(), local);
+      AppUtil.refreshPAC();
+      PushUtil.publish("extensions", ExtensionContent.get());
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   @RequestMapping("getProxyMode")
@@ -346,65 +421,78 @@ public class NativeController {
   }
 
   @RequestMapping("changeProxyMode")
-  public FullHttpResponse changeProxyMode(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> changeProxyMode(Channel channel, FullHttpRequest request) throws Exception {
     Map<String, Object> map = getJSONParams(request);
     int mode = (int) map.get("mode");
-    PDownConfigContent.getInstance().get().setProxyMode(mode);
-    //修改系统代理
-    if (mode == 1) {
-      AppUtil.refreshPAC();
-    } else {
-      ExtensionProxyUtil.disabledProxy();
-    }
-    PDownConfigContent.getInstance().save();
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    return AsyncUtil.supply(() -> {
+      PDownConfigContent.getInstance().get().setProxyMode(mode);
+      //修改系统代理
+      if (mode == 1) {
+        AppUtil.refreshPAC();
+      } else {
+        ExtensionProxyUtil.disabledProxy();
+      }
+      PDownConfigContent.getInstance().save();
+      Map<String, Object> data = new HashMap<>();
+      data.put("mode", mode);
+      PushUtil.publish("proxyMode", data);
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   @RequestMapping("checkCert")
-  public FullHttpResponse checkCert(Channel channel, FullHttpRequest request) throws Exception {
-    Map<String, Object> data = new HashMap<>();
-    data.put("status", AppUtil.checkIsInstalledCert());
-    return HttpHandlerUtil.buildJson(data);
+  public CompletableFuture<FullHttpResponse> checkCert(Channel channel, FullHttpRequest request) throws Exception {
+    return AsyncUtil.supply(() -> {
+      Map<String, Object> data = new HashMap<>();
+      data.put("status", AppUtil.checkIsInstalledCert());
+      return HttpHandlerUtil.buildJson(data);
+    });
   }
 
   @RequestMapping("installCert")
-  public FullHttpResponse installCert(Channel channel, FullHttpRequest request) throws Exception {
-    Map<String, Object> data = new HashMap<>();
-    boolean status;
-    if (OsUtil.isUnix() || OsUtil.isWindowsXP()) {
-      if (!AppUtil.checkIsInstalledCert()) {
-        ExtensionCertUtil.buildCert(AppUtil.SSL_PATH, AppUtil.SUBJECT);
-      }
-      Desktop.getDesktop().open(new File(AppUtil.SSL_PATH));
-      status = true;
-    } else {
-      //再检测一次，确保不重复安装
-      if (!AppUtil.checkIsInstalledCert()) {
-        if (ExtensionCertUtil.existsCert(AppUtil.SUBJECT)) {
-          //存在无用证书需要卸载
-          ExtensionCertUtil.uninstallCert(AppUtil.SUBJECT);
+  public CompletableFuture<FullHttpResponse> installCert(Channel channel, FullHttpRequest request) throws Exception {
+    return AsyncUtil.supply(() -> {
+      Map<String, Object> data = new HashMap<>();
+      boolean status;
+      if (OsUtil.isUnix() || OsUtil.isWindowsXP()) {
+        if (!AppUtil.checkIsInstalledCert()) {
+          ExtensionCertUtil.buildCert(AppUtil.SSL_PATH, AppUtil.SUBJECT);
         }
-        //生成新的证书
-        ExtensionCertUtil.buildCert(AppUtil.SSL_PATH, AppUtil.SUBJECT);
-        //安装
-        ExtensionCertUtil.installCert(new File(AppUtil.CERT_PATH));
-        //检测是否安装成功，可能点了取消就没安装成功
-        status = AppUtil.checkIsInstalledCert();
-      } else {
+        Desktop.getDesktop().open(new File(AppUtil.SSL_PATH));
         status = true;
-      }
-    }
-    data.put("status", status);
-    if (status && !PDownProxyServer.isStart) {
-      new Thread(() -> {
-        try {
-          AppUtil.startProxyServer();
-        } catch (IOException e) {
-          LOGGER.error("Start proxy server error", e);
+      } else {
+        //再检测一次，确保不重复安装
+        if (!AppUtil.checkIsInstalledCert()) {
+          if (ExtensionCertUtil.existsCert(AppUtil.SUBJECT)) {
+            //存在无用证书需要卸载
+            ExtensionCertUtil.uninstallCert(AppUtil.SUBJECT);
+          }
+          //生成新的证书
+          ExtensionCertUtil.buildCert(AppUtil.SSL_PATH, AppUtil.SUBJECT);
+          //安装
+          ExtensionCertUtil.installCert(new File(AppUtil.CERT_PATH));
+          //检测是否安装成功，可能点了取消就没安装成功
+          status = AppUtil.checkIsInstalledCert();
+        } else {
+          status = true;
         }
-      }).start();
-    }
-    return HttpHandlerUtil.buildJson(data);
+      }
+      data.put("status", status);
+      PushUtil.publish("cert", data);
+      if (status && PDownProxyServer.isStart) {
+        //CA证书可能重新生成了，重新加载
+        PDownProxyServer.refresh(true);
+      } else if (status) {
+        new Thread(() -> {
+          try {
+            AppUtil.startProxyServer();
+          } catch (IOException e) {
+            LOGGER.error("Start proxy server error", e);
+          }
+        }).start();
+      }
+      return HttpHandlerUtil.buildJson(data);
+    });
   }
 
   @RequestMapping("copy")
@@ -430,48 +518,47 @@ public class NativeController {
         .findFirst()
         .get();
     extensionInfo.getMeta().setSettings(setting).save();
+    PushUtil.publish("extensions", ExtensionContent.get());
     return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
   }
 
   @RequestMapping("onResolve")
-  public FullHttpResponse onResolve(Channel channel, FullHttpRequest request) throws Exception {
+  public CompletableFuture<FullHttpResponse> onResolve(Channel channel, FullHttpRequest request) throws Exception {
     HttpRequestForm taskRequest = getJSONParams(request, HttpRequestForm.class);
-    //遍历扩展模块是否有对应的处理
-    List<ExtensionInfo> extensionInfos = ExtensionContent.get();
-    for (ExtensionInfo extensionInfo : extensionInfos) {
-      if (extensionInfo.getMeta().isEnabled()) {
-        if (extensionInfo.getHookScript() != null
-            && !StringUtils.isEmpty(extensionInfo.getHookScript().getScript())) {
-          Event event = extensionInfo.getHookScript().hasEvent(HookScript.EVENT_RESOLVE, taskRequest.getUrl());
-          if (event != null) {
-            try {
-              //执行resolve方法
-              Object result = ExtensionUtil.invoke(extensionInfo, event, taskRequest, false);
-              if (result != null) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                String temp = objectMapper.writeValueAsString(result);
-                TaskForm taskForm = objectMapper.readValue(temp, TaskForm.class);
-                //有一个扩展解析成功的话直接返回
-                return HttpHandlerUtil.buildJson(taskForm, Include.NON_DEFAULT);
+    return AsyncUtil.supply(() -> {
+      //遍历扩展模块是否有对应的处理
+      List<ExtensionInfo> extensionInfos = ExtensionContent.get();
+      for (ExtensionInfo extensionInfo : extensionInfos) {
+        if (extensionInfo.getMeta().isEnabled()) {
+          if (extensionInfo.getHookScript() != null
+              && !StringUtils.isEmpty(extensionInfo.getHookScript().getScript())) {
+            Event event = extensionInfo.getHookScript().hasEvent(HookScript.EVENT_RESOLVE, taskRequest.getUrl());
+            if (event != null) {
+              try {
+                //执行resolve方法
+                Object result = ExtensionUtil.invoke(extensionInfo, event, taskRequest, false);
+                if (result != null) {
+                  TaskForm taskForm = HttpHandlerUtil.convertValue(result, TaskForm.class);
+                  //有一个扩展解析成功的话直接返回
+                  return HttpHandlerUtil.buildJson(taskForm, Include.NON_DEFAULT);
+                }
+              } catch (Exception e) {
+                LOGGER.error("An exception occurred while resolve()", e);
               }
-            } catch (Exception e) {
-              LOGGER.error("An exception occurred while resolve()", e);
             }
           }
         }
       }
-    }
-    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+      return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    });
   }
 
   private Map<String, Object> getJSONParams(FullHttpRequest request) throws IOException {
-    ObjectMapper objectMapper = new ObjectMapper();
-    return objectMapper.readValue(request.content().toString(Charset.forName("UTF-8")), Map.class);
+    return HttpHandlerUtil.readJson(request, Map.class);
   }
 
   private <T> T getJSONParams(FullHttpRequest request, Class<T> clazz) throws IOException {
-    ObjectMapper objectMapper = new ObjectMapper();
-    return objectMapper.readValue(request.content().toString(Charset.forName("UTF-8")), clazz);
+    return HttpHandlerUtil.readJson(request, clazz);
   }
 
 }
@@ -1,55 +1,47 @@
 package org.pdown.gui.http.controller;
 
 import io.netty.channel.Channel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
-import java.util.Set;
-import org.pdown.gui.DownApplication;
-import org.pdown.gui.extension.ExtensionContent;
-import org.pdown.gui.http.util.HttpHandlerUtil;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.AsciiString;
+import java.util.List;
+import org.pdown.gui.extension.PacContent;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 @RequestMapping("pac")
 public class PacController {
 
-  private static final String PAC_TEMPLATE = "function FindProxyForURL(url, host) {"
-      + "  if (isInNet(host, '127.0.0.1', '255.0.0.255')"
-      + "      || isInNet(dnsResolve(host), '127.0.0.1', '255.0.0.255')) {"
-      + "    return 'DIRECT';"
-      + "  }"
-      + "  var domains = [{domains}];"
-      + "  var match = false;"
-      + "  for (var i = 0; i < domains.length; i++) {"
-      + "    if (shExpMatch(host, domains[i])) {"
-      + "      match = true;"
-      + "      break;"
-      + "    }"
-      + "  }"
-      + "  return match ? 'PROXY 127.0.0.1:{port};DIRECT' : 'DIRECT';"
-      + "}";
+  private static final AsciiString PAC_CONTENT_TYPE = AsciiString.cached("application/x-ns-proxy-autoconfig");
 
+  /**
+   * PAC地址带上内容hash作为版本号(v参数)，版本号匹配时允许客户端长期缓存
+   */
   @RequestMapping("pdown.pac")
   public FullHttpResponse build(Channel channel, FullHttpRequest request) throws Exception {
-    Set<String> domains = ExtensionContent.getProxyWildCards();
-    String pacContent = PAC_TEMPLATE.replace("{port}", DownApplication.INSTANCE.PROXY_PORT + "");
-    if (domains != null && domains.size() > 0) {
-      StringBuilder domainsBuilder = new StringBuilder();
-      for (String domain : domains) {
-        if (domainsBuilder.length() != 0) {
-          domainsBuilder.append(",");
-        }
-        domainsBuilder.append("'" + domain + "'");
-      }
-      pacContent = pacContent.replace("{domains}", domainsBuilder.toString());
+    String hash = PacContent.getHash();
+    String etag = "\"" + hash + "\"";
+    FullHttpResponse httpResponse;
+    String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+    if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+      httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
     } else {
-      pacContent = pacContent.replace("{domains}", "");
+      httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, PacContent.getContent());
+      httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, PAC_CONTENT_TYPE);
+    }
+    httpResponse.headers().set(HttpHeaderNames.ETAG, etag);
+    List<String> versions = new QueryStringDecoder(request.uri()).parameters().get("v");
+    if (versions != null && versions.contains(hash)) {
+      httpResponse.headers().set(HttpHeaderNames.CACHE_CONTROL, "max-age=31536000, immutable");
+    } else {
+      //旧版本或者没带版本号的地址每次都要重新验证
+      httpResponse.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
     }
-    FullHttpResponse httpResponse = HttpHandlerUtil.buildContent(pacContent, "application/x-ns-proxy-autoconfig");
-    httpResponse.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-    httpResponse.headers().set(HttpHeaderNames.PRAGMA, HttpHeaderValues.NO_CACHE);
-    httpResponse.headers().set(HttpHeaderNames.EXPIRES, 0);
     return httpResponse;
   }
 
@@ -0,0 +1,47 @@
+package org.pdown.gui.http.util;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.pdown.gui.util.ConfigUtil;
+
+/**
+ * 把会阻塞的native接口放到独立的有界线程池中执行，避免占用http服务器的worker线程
+ */
+public class AsyncUtil {
+
+  private static final ThreadPoolExecutor EXECUTOR;
+
+  static {
+    int threads = ConfigUtil.getInt("api.executor.threads");
+    int queue = ConfigUtil.getInt("api.executor.queue");
+    EXECUTOR = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queue),
+        new DefaultThreadFactory("native-action", true));
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * 异步执行，线程池满了之后返回的future会以RejectedExecutionException结束
+   */
+  public static CompletableFuture<FullHttpResponse> supply(Callable<FullHttpResponse> action) {
+    CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
+    try {
+      EXECUTOR.execute(() -> {
+        try {
+          future.complete(action.call());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+}
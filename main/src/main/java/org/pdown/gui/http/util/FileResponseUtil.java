@@ -0,0 +1,167 @@
+package org.pdown.gui.http.util;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.local.LocalChannel;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+/**
+ * 磁盘文件响应，支持Range/If-Range断点请求
+ * 明文连接使用FileRegion(sendfile)零拷贝发送，其它情况退化为ChunkedNioFile分块读取
+ */
+public class FileResponseUtil {
+
+  private static final int CHUNK_SIZE = 8192;
+
+  public static void write(Channel channel, HttpRequest request, File file, CharSequence contentType) throws IOException {
+    long fileLength = file.length();
+    long lastModified = file.lastModified();
+    String etag = "\"" + Long.toHexString(fileLength) + "-" + Long.toHexString(lastModified) + "\"";
+    boolean keepAlive = HttpUtil.isKeepAlive(request);
+
+    String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+    if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+      FullHttpResponse notModified = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+      notModified.headers().set(HttpHeaderNames.ETAG, etag);
+      finish(channel.writeAndFlush(notModified), keepAlive);
+      return;
+    }
+
+    long start = 0;
+    long end = fileLength - 1;
+    HttpResponseStatus status = HttpResponseStatus.OK;
+    String range = request.headers().get(HttpHeaderNames.RANGE);
+    if (range != null && matchIfRange(request.headers().get(HttpHeaderNames.IF_RANGE), etag, lastModified)) {
+      long[] bounds = parseRange(range, fileLength);
+      if (bounds == null) {
+        FullHttpResponse unsatisfiable = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        unsatisfiable.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + fileLength);
+        unsatisfiable.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        finish(channel.writeAndFlush(unsatisfiable), keepAlive);
+        return;
+      }
+      if (bounds.length == 2) {
+        start = bounds[0];
+        end = bounds[1];
+        status = HttpResponseStatus.PARTIAL_CONTENT;
+      }
+    }
+    long length = end - start + 1;
+
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+    response.headers().set(HttpHeaderNames.CONTENT_LENGTH, length);
+    response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+    response.headers().set(HttpHeaderNames.ETAG, etag);
+    response.headers().set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(lastModified)));
+    response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+    if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+      response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+    }
+    if (keepAlive) {
+      response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+    }
+    if (HttpMethod.HEAD.equals(request.method()) || length == 0) {
+      channel.write(response);
+      finish(channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT), keepAlive);
+      return;
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ChannelFuture lastFuture;
+    try {
+      channel.write(response);
+      //LocalChannel直接把消息对象交给对端，不能传FileRegion
+      if (channel.pipeline().get(SslHandler.class) == null && !(channel instanceof LocalChannel)) {
+        channel.write(new DefaultFileRegion(raf.getChannel(), start, length));
+        lastFuture = channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+      } else {
+        lastFuture = channel.writeAndFlush(new HttpChunkedInput(new ChunkedNioFile(raf.getChannel(), start, length, CHUNK_SIZE)));
+      }
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+    finish(lastFuture, keepAlive);
+  }
+
+  private static void finish(ChannelFuture future, boolean keepAlive) {
+    if (!keepAlive) {
+      future.addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+
+  /**
+   * If-Range为空或者与当前文件的ETag/修改时间一致时Range才生效
+   */
+  private static boolean matchIfRange(String ifRange, String etag, long lastModified) {
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(etag);
+    }
+    Date date = DateFormatter.parseHttpDate(ifRange);
+    return date != null && date.getTime() / 1000 == lastModified / 1000;
+  }
+
+  /**
+   * 解析单个Range，返回[start,end]；多段Range不支持返回空数组(按完整内容响应)；无法满足时返回null
+   */
+  private static long[] parseRange(String range, long fileLength) {
+    range = range.trim();
+    if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+      return new long[0];
+    }
+    String spec = range.substring("bytes=".length()).trim();
+    int index = spec.indexOf('-');
+    if (index == -1) {
+      return new long[0];
+    }
+    try {
+      long start;
+      long end;
+      if (index == 0) {
+        //bytes=-500 取最后500个字节
+        long suffix = Long.parseLong(spec.substring(1).trim());
+        if (suffix <= 0) {
+          return null;
+        }
+        start = Math.max(0, fileLength - suffix);
+        end = fileLength - 1;
+      } else {
+        start = Long.parseLong(spec.substring(0, index).trim());
+        String endStr = spec.substring(index + 1).trim();
+        end = endStr.isEmpty() ? fileLength - 1 : Math.min(Long.parseLong(endStr), fileLength - 1);
+      }
+      if (start >= fileLength || start > end) {
+        return null;
+      }
+      return new long[]{start, end};
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+  }
+}
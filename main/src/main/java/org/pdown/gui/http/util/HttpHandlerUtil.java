@@ -1,19 +1,54 @@
 package org.pdown.gui.http.util;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.util.AsciiString;
-import java.nio.charset.Charset;
+import io.netty.util.AttributeKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HttpHandlerUtil {
 
+  private static final AsciiString JSON_CONTENT_TYPE = AsciiString.cached("application/json; charset=utf-8");
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final ObjectWriter DEFAULT_WRITER = MAPPER.writer();
+  //每种Include模式对应一个预先构建好的ObjectWriter
+  private static final Map<Include, ObjectWriter> WRITERS = new EnumMap<>(Include.class);
+  private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+  static {
+    for (Include include : Include.values()) {
+      WRITERS.put(include, MAPPER.copy().setSerializationInclusion(include).writer());
+    }
+  }
+
+  //路由中{param}占位符匹配到的值
+  public static final AttributeKey<Map<String, String>> PATH_VARIABLES = AttributeKey.valueOf("pathVariables");
+
+  public static String getPathVariable(Channel channel, String name) {
+    Map<String, String> variables = channel.attr(PATH_VARIABLES).get();
+    return variables == null ? null : variables.get(name);
+  }
+
   public static void writeJson(Channel channel, Object obj) {
     channel.writeAndFlush(buildJson(obj));
   }
@@ -23,31 +58,86 @@ public class HttpHandlerUtil {
   }
 
   public static FullHttpResponse buildJson(Object obj, Include include) {
-    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-    response.headers().set(HttpHeaderNames.CONTENT_TYPE, AsciiString.cached("application/json; charset=utf-8"));
+    FullHttpResponse response;
     if (obj != null) {
+      ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
       try {
-        ObjectMapper objectMapper = new ObjectMapper();
-        if (include != null) {
-          objectMapper.setSerializationInclusion(include);
-        }
-        String content = objectMapper.writeValueAsString(obj);
-        response.content().writeBytes(content.getBytes(Charset.forName("utf-8")));
-      } catch (JsonProcessingException e) {
-        response.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        ObjectWriter writer = include == null ? DEFAULT_WRITER : WRITERS.get(include);
+        writer.writeValue((OutputStream) new ByteBufOutputStream(content), obj);
+        response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+      } catch (IOException e) {
+        content.release();
+        response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
       }
+    } else {
+      response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
     }
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
     response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
     return response;
   }
 
   public static FullHttpResponse buildContent(String content, String contentType) {
-    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-    response.headers().set(HttpHeaderNames.CONTENT_TYPE, AsciiString.cached(contentType));
+    FullHttpResponse response;
     if (content != null) {
-      response.content().writeBytes(content.getBytes(Charset.forName("utf-8")));
+      response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+          ByteBufUtil.writeUtf8(PooledByteBufAllocator.DEFAULT, content));
+    } else {
+      response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
     }
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, AsciiString.cached(contentType));
     response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
     return response;
   }
+
+  /**
+   * 把对象序列化成json字节数组，用于需要缓存响应体的场景
+   */
+  public static byte[] toJsonBytes(Object obj, Include include) throws IOException {
+    ObjectWriter writer = include == null ? DEFAULT_WRITER : WRITERS.get(include);
+    return writer.writeValueAsBytes(obj);
+  }
+
+  public static FullHttpResponse buildJson(byte[] content) {
+    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.wrappedBuffer(content));
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
+    response.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.length);
+    return response;
+  }
+
+  /**
+   * 把对象序列化成json追加到buf中
+   */
+  public static void encodeJson(ByteBuf buf, Object obj) throws IOException {
+    DEFAULT_WRITER.writeValue((OutputStream) new ByteBufOutputStream(buf), obj);
+  }
+
+  /**
+   * 取共享的ObjectReader，按类型缓存
+   */
+  public static ObjectReader reader(Class<?> clazz) {
+    return READERS.computeIfAbsent(clazz, MAPPER::readerFor);
+  }
+
+  /**
+   * 直接从请求体的ByteBuf解析json，不经过String中转
+   */
+  public static <T> T readJson(FullHttpRequest request, ObjectReader reader) throws IOException {
+    try (
+        InputStream inputStream = new ByteBufInputStream(request.content().duplicate())
+    ) {
+      return reader.readValue(inputStream);
+    }
+  }
+
+  public static <T> T readJson(FullHttpRequest request, Class<T> clazz) throws IOException {
+    return readJson(request, reader(clazz));
+  }
+
+  /**
+   * 用共享的ObjectMapper把对象转换成指定类型，不经过json字符串中转
+   */
+  public static <T> T convertValue(Object obj, Class<T> clazz) {
+    return MAPPER.convertValue(obj, clazz);
+  }
 }
@@ -0,0 +1,67 @@
+package org.pdown.gui.http.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * 按版本号缓存json响应体，版本号作为ETag，客户端带上If-None-Match且版本未变时直接返回304
+ */
+public class JsonCache {
+
+  //版本号每次启动都从头开始计数，ETag带上启动时间避免和上次运行的缓存冲突
+  private static final String BOOT_ID = Long.toHexString(System.currentTimeMillis());
+
+  private final Include include;
+  private volatile Entry entry;
+
+  public JsonCache() {
+    this(null);
+  }
+
+  public JsonCache(Include include) {
+    this.include = include;
+  }
+
+  /**
+   * @param version 数据当前的版本号
+   * @param supplier 版本变化时用来取最新数据
+   */
+  public FullHttpResponse build(FullHttpRequest request, long version, Supplier<Object> supplier) throws IOException {
+    String etag = "\"" + BOOT_ID + "-" + Long.toHexString(version) + "\"";
+    FullHttpResponse response;
+    String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+    if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+      response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+    } else {
+      Entry current = entry;
+      if (current == null || current.version != version) {
+        current = new Entry(version, HttpHandlerUtil.toJsonBytes(supplier.get(), include));
+        entry = current;
+      }
+      response = HttpHandlerUtil.buildJson(current.body);
+    }
+    response.headers().set(HttpHeaderNames.ETAG, etag);
+    //每次都要带上ETag回来验证
+    response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+    return response;
+  }
+
+  private static class Entry {
+
+    private final long version;
+    private final byte[] body;
+
+    Entry(long version, byte[] body) {
+      this.version = version;
+      this.body = body;
+    }
+  }
+}
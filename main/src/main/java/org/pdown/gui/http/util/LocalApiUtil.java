@@ -0,0 +1,81 @@
+package org.pdown.gui.http.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.pdown.gui.http.EmbedHttpServer;
+
+/**
+ * 进程内调用api服务器，通过LocalChannel直接投递到EmbedHttpServer，不经过TCP协议栈
+ */
+public class LocalApiUtil {
+
+  private static final EventLoopGroup LOOP_GROUP = new DefaultEventLoopGroup(1, new DefaultThreadFactory("local-api", true));
+
+  /**
+   * 发送请求并等待响应，返回的响应使用完之后需要release
+   */
+  public static FullHttpResponse request(FullHttpRequest request, long timeout) throws IOException {
+    CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
+    Bootstrap bootstrap = new Bootstrap().group(LOOP_GROUP)
+        .channel(LocalChannel.class)
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) throws Exception {
+            ch.pipeline().addLast("httpCodec", new HttpClientCodec());
+            ch.pipeline().addLast(new HttpObjectAggregator(4194304));
+            ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+              @Override
+              protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                future.complete(response.retain());
+                ctx.channel().close();
+              }
+
+              @Override
+              public void channelInactive(ChannelHandlerContext ctx) {
+                future.completeExceptionally(new IOException("Local api connection closed"));
+              }
+
+              @Override
+              public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                future.completeExceptionally(cause);
+                ctx.channel().close();
+              }
+            });
+          }
+        });
+    bootstrap.connect(EmbedHttpServer.LOCAL_ADDRESS).addListener((ChannelFutureListener) connectFuture -> {
+      if (connectFuture.isSuccess()) {
+        connectFuture.channel().writeAndFlush(request);
+      } else {
+        request.release();
+        future.completeExceptionally(connectFuture.cause());
+      }
+    });
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException | TimeoutException e) {
+      //超时之后才返回的响应直接释放
+      future.thenAccept(FullHttpResponse::release);
+      throw new IOException("Local api request timeout", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+}
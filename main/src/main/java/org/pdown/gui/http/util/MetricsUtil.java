@@ -0,0 +1,117 @@
+package org.pdown.gui.http.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import org.pdown.gui.http.RouteMetrics;
+
+/**
+ * 汇总所有路由的统计信息和其它模块注册的计数器，输出Prometheus文本格式或json快照
+ */
+public class MetricsUtil {
+
+  //Prometheus直方图的le边界，单位秒
+  private static final double[] BOUNDS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private static final List<RouteMetrics> METRICS = new CopyOnWriteArrayList<>();
+  private static final List<Sample> SAMPLES = new CopyOnWriteArrayList<>();
+
+  public static RouteMetrics register(String path) {
+    RouteMetrics metrics = new RouteMetrics(path);
+    METRICS.add(metrics);
+    return metrics;
+  }
+
+  /**
+   * 注册一个不带标签的计数器或者仪表盘，输出时才读取当前值
+   *
+   * @param type counter或gauge
+   */
+  public static void register(String name, String type, String help, DoubleSupplier value) {
+    SAMPLES.add(new Sample(name, type, help, value));
+  }
+
+  public static List<Map<String, Object>> snapshot() {
+    List<Map<String, Object>> list = new ArrayList<>();
+    for (RouteMetrics metrics : METRICS) {
+      list.add(metrics.toMap());
+    }
+    return list;
+  }
+
+  public static String toPrometheus() {
+    StringBuilder latency = new StringBuilder();
+    StringBuilder requests = new StringBuilder();
+    StringBuilder errors = new StringBuilder();
+    StringBuilder inFlight = new StringBuilder();
+    StringBuilder bytes = new StringBuilder();
+    latency.append("# HELP pdown_api_request_duration_seconds Native api request latency.\n")
+        .append("# TYPE pdown_api_request_duration_seconds histogram\n");
+    requests.append("# HELP pdown_api_requests_total Native api requests.\n")
+        .append("# TYPE pdown_api_requests_total counter\n");
+    errors.append("# HELP pdown_api_errors_total Native api failed requests.\n")
+        .append("# TYPE pdown_api_errors_total counter\n");
+    inFlight.append("# HELP pdown_api_in_flight Native api requests in progress.\n")
+        .append("# TYPE pdown_api_in_flight gauge\n");
+    bytes.append("# HELP pdown_api_response_bytes Native api response body size.\n")
+        .append("# TYPE pdown_api_response_bytes summary\n");
+    for (RouteMetrics metrics : METRICS) {
+      String label = "{route=\"" + metrics.getPath() + "\"";
+      long[] counts = metrics.snapshot();
+      long total = 0;
+      int index = 0;
+      for (double bound : BOUNDS) {
+        long boundMicros = (long) (bound * 1000000);
+        //细分桶的上界不超过le时计入该le
+        while (index < counts.length && RouteMetrics.bucketUpperBound(index) <= boundMicros) {
+          total += counts[index++];
+        }
+        latency.append("pdown_api_request_duration_seconds_bucket").append(label)
+            .append(",le=\"").append(bound).append("\"} ").append(total).append('\n');
+      }
+      while (index < counts.length) {
+        total += counts[index++];
+      }
+      latency.append("pdown_api_request_duration_seconds_bucket").append(label)
+          .append(",le=\"+Inf\"} ").append(total).append('\n');
+      latency.append("pdown_api_request_duration_seconds_sum").append(label).append("} ")
+          .append(metrics.getLatencySum() / 1000000D).append('\n');
+      latency.append("pdown_api_request_duration_seconds_count").append(label).append("} ")
+          .append(total).append('\n');
+      requests.append("pdown_api_requests_total").append(label).append("} ")
+          .append(metrics.getCount()).append('\n');
+      errors.append("pdown_api_errors_total").append(label).append("} ")
+          .append(metrics.getErrors()).append('\n');
+      inFlight.append("pdown_api_in_flight").append(label).append("} ")
+          .append(metrics.getInFlight()).append('\n');
+      bytes.append("pdown_api_response_bytes_sum").append(label).append("} ")
+          .append(metrics.getResponseBytes()).append('\n');
+      bytes.append("pdown_api_response_bytes_count").append(label).append("} ")
+          .append(metrics.getCount()).append('\n');
+    }
+    latency.append(requests).append(errors).append(inFlight).append(bytes);
+    for (Sample sample : SAMPLES) {
+      latency.append("# HELP ").append(sample.name).append(' ').append(sample.help).append('\n')
+          .append("# TYPE ").append(sample.name).append(' ').append(sample.type).append('\n')
+          .append(sample.name).append(' ').append(sample.value.getAsDouble()).append('\n');
+    }
+    return latency.toString();
+  }
+
+  private static class Sample {
+
+    private final String name;
+    private final String type;
+    private final String help;
+    private final DoubleSupplier value;
+
+    Sample(String name, String type, String help, DoubleSupplier value) {
+      this.name = name;
+      this.type = type;
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
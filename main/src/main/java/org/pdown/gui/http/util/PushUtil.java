@@ -0,0 +1,128 @@
+package org.pdown.gui.http.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.pdown.gui.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-Sent Events推送，native代码调用publish发布事件，前端通过EventSource订阅
+ * 同一事件在合并周期内只推送最后一次的数据，新订阅的连接会先收到每个事件的最新数据
+ */
+public class PushUtil {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PushUtil.class);
+
+  private static final AsciiString EVENT_STREAM = AsciiString.cached("text/event-stream; charset=utf-8");
+  private static final long INTERVAL = ConfigUtil.getInt("api.push.interval");
+
+  //订阅和推送都在GlobalEventExecutor线程中执行，保证新连接补发的数据不会比推送的数据旧
+  private static final ChannelGroup CHANNELS = new DefaultChannelGroup("push", GlobalEventExecutor.INSTANCE);
+  private static final Map<String, ByteBuf> LAST_EVENTS = new HashMap<>();
+
+  private static final Object LOCK = new Object();
+  //已经编码好的待推送事件，发布时就序列化，避免推送时读到被其它线程修改中的对象
+  private static Map<String, ByteBuf> pending = new LinkedHashMap<>();
+  private static boolean scheduled;
+  private static volatile long lastFlushTime;
+
+  /**
+   * 把连接转为事件流，返回后不能再写入其它http响应
+   */
+  public static void subscribe(Channel channel) {
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, EVENT_STREAM);
+    response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+    HttpUtil.setTransferEncodingChunked(response, true);
+    channel.write(response);
+    channel.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer("retry: 3000\n\n", CharsetUtil.UTF_8)));
+    GlobalEventExecutor.INSTANCE.execute(() -> {
+      for (ByteBuf event : LAST_EVENTS.values()) {
+        channel.write(new DefaultHttpContent(event.retainedDuplicate()));
+      }
+      channel.flush();
+      CHANNELS.add(channel);
+    });
+  }
+
+  /**
+   * 发布事件，data在调用时序列化成json，可在任意线程调用
+   */
+  public static void publish(String event, Object data) {
+    ByteBuf content;
+    try {
+      content = encode(event, data);
+    } catch (IOException e) {
+      LOGGER.error("push event encode error: " + event, e);
+      return;
+    }
+    synchronized (LOCK) {
+      ByteBuf before = pending.put(event, content);
+      if (before != null) {
+        before.release();
+      }
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    long delay = Math.max(0, lastFlushTime + INTERVAL - System.currentTimeMillis());
+    GlobalEventExecutor.INSTANCE.schedule(PushUtil::flush, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static void flush() {
+    Map<String, ByteBuf> events;
+    synchronized (LOCK) {
+      events = pending;
+      pending = new LinkedHashMap<>();
+      scheduled = false;
+    }
+    lastFlushTime = System.currentTimeMillis();
+    for (Map.Entry<String, ByteBuf> entry : events.entrySet()) {
+      ByteBuf content = entry.getValue();
+      ByteBuf before = LAST_EVENTS.put(entry.getKey(), content);
+      if (before != null) {
+        before.release();
+      }
+      if (!CHANNELS.isEmpty()) {
+        CHANNELS.writeAndFlush(new DefaultHttpContent(content.retainedDuplicate()));
+      }
+    }
+  }
+
+  //event: {event}\ndata: {json}\n\n
+  private static ByteBuf encode(String event, Object data) throws IOException {
+    ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+    try {
+      ByteBufUtil.writeUtf8(content, "event: " + event + "\ndata: ");
+      HttpHandlerUtil.encodeJson(content, data);
+      ByteBufUtil.writeUtf8(content, "\n\n");
+    } catch (IOException e) {
+      content.release();
+      throw e;
+    }
+    return content;
+  }
+}
@@ -22,6 +22,7 @@ import org.pdown.core.util.FileUtil;
 import org.pdown.core.util.OsUtil;
 import org.pdown.gui.DownApplication;
 import org.pdown.gui.content.PDownConfigContent;
+import org.pdown.gui.extension.PacContent;
 import org.pdown.gui.extension.mitm.server.PDownProxyServer;
 import org.pdown.gui.extension.mitm.util.ExtensionCertUtil;
 import org.pdown.gui.extension.mitm.util.ExtensionProxyUtil;
@@ -49,7 +50,7 @@ public class AppUtil {
    */
   public static void refreshPAC() throws IOException {
     if (PDownConfigContent.getInstance().get().getProxyMode() == 1) {
-      ExtensionProxyUtil.enabledPACProxy("http://127.0.0.1:" + DownApplication.INSTANCE.API_PORT + "/pac/pdown.pac?t=" + System.currentTimeMillis());
+      ExtensionProxyUtil.enabledPACProxy("http://127.0.0.1:" + DownApplication.INSTANCE.API_PORT + "/pac/pdown.pac?v=" + PacContent.getHash());
     }
   }
 
@@ -58,6 +59,9 @@ public class AppUtil {
    */
   public static void startProxyServer() throws IOException {
     DownApplication.INSTANCE.PROXY_PORT = OsUtil.getFreePort(9999);
+    //代理端口变化后PAC需要重新生成，并把新版本的PAC地址设置到系统
+    PacContent.refresh();
+    refreshPAC();
     PDownProxyServer.start(DownApplication.INSTANCE.PROXY_PORT);
   }
 
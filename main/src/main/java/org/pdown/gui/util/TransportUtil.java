@@ -0,0 +1,106 @@
+package org.pdown.gui.util;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.pdown.gui.content.PDownConfigContent;
+import org.pdown.gui.entity.PDownConfigInfo;
+
+/**
+ * netty传输层和线程池的创建，linux下epoll可用时优先使用epoll，否则使用nio
+ */
+public class TransportUtil {
+
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  private static EventLoopGroup sharedBossGroup;
+  private static EventLoopGroup sharedWorkerGroup;
+
+  public static boolean isEpoll() {
+    return getConfig().isNativeTransport() && Epoll.isAvailable();
+  }
+
+  public static boolean isShareEventLoop() {
+    return getConfig().isShareEventLoop();
+  }
+
+  public static Class<? extends ServerChannel> serverChannelClass() {
+    return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  public static EventLoopGroup newGroup(int threads, String name) {
+    DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+    return isEpoll() ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+  }
+
+  /**
+   * 开启共用线程池时返回共用的boss线程池，否则新建一个
+   */
+  public static synchronized EventLoopGroup bossGroup(int threads, String name) {
+    if (!isShareEventLoop()) {
+      return newGroup(threads, name);
+    }
+    if (sharedBossGroup == null) {
+      sharedBossGroup = newGroup(Math.max(apiBossThreads(), proxyBossThreads()), "shared-boss");
+    }
+    return sharedBossGroup;
+  }
+
+  /**
+   * 开启共用线程池时返回共用的worker线程池，否则新建一个
+   */
+  public static synchronized EventLoopGroup workerGroup(int threads, String name) {
+    if (!isShareEventLoop()) {
+      return newGroup(threads, name);
+    }
+    if (sharedWorkerGroup == null) {
+      sharedWorkerGroup = newGroup(Math.max(apiWorkerThreads(), proxyWorkerThreads()), "shared-worker");
+    }
+    return sharedWorkerGroup;
+  }
+
+  /**
+   * 关闭线程池，共用的线程池跟随程序退出不需要关闭
+   */
+  public static synchronized void shutdown(EventLoopGroup group) {
+    if (group != null && group != sharedBossGroup && group != sharedWorkerGroup) {
+      group.shutdownGracefully();
+    }
+  }
+
+  public static int apiBossThreads() {
+    return resolve(getConfig().getApiBossThreads(), 1);
+  }
+
+  public static int apiWorkerThreads() {
+    //api服务器只处理本机请求，不需要太多线程
+    return resolve(getConfig().getApiWorkerThreads(), Math.min(2, CORES));
+  }
+
+  public static int proxyBossThreads() {
+    return resolve(getConfig().getProxyBossThreads(), 1);
+  }
+
+  public static int proxyWorkerThreads() {
+    return resolve(getConfig().getProxyWorkerThreads(), Math.max(1, CORES / 2));
+  }
+
+  public static int proxyGroupThreads() {
+    return resolve(getConfig().getProxyGroupThreads(), Math.max(1, CORES / 2));
+  }
+
+  private static int resolve(int threads, int defaultThreads) {
+    return threads > 0 ? threads : defaultThreads;
+  }
+
+  private static PDownConfigInfo getConfig() {
+    PDownConfigInfo configInfo = PDownConfigContent.getInstance().get();
+    //配置未加载时(例如单独启动EmbedHttpServer)使用默认值
+    return configInfo != null ? configInfo : new PDownConfigInfo();
+  }
+}
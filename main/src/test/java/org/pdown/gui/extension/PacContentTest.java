@@ -0,0 +1,123 @@
+package org.pdown.gui.extension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PacContentTest {
+
+  //旧版PAC，每个域名都用shExpMatch匹配，回环地址通过dnsResolve判断
+  private static final String LEGACY_PAC_TEMPLATE = "function FindProxyForURL(url, host) {"
+      + "  if (isInNet(host, '127.0.0.1', '255.0.0.255')"
+      + "      || isInNet(dnsResolve(host), '127.0.0.1', '255.0.0.255')) {"
+      + "    return 'DIRECT';"
+      + "  }"
+      + "  var domains = [{domains}];"
+      + "  var match = false;"
+      + "  for (var i = 0; i < domains.length; i++) {"
+      + "    if (shExpMatch(host, domains[i])) {"
+      + "      match = true;"
+      + "      break;"
+      + "    }"
+      + "  }"
+      + "  return match ? 'PROXY 127.0.0.1:{port};DIRECT' : 'DIRECT';"
+      + "}";
+
+  //PAC运行环境函数的简单实现，dnsResolve固定返回结果，保证对比结果稳定
+  private static final String PAC_FUNCTIONS = "function shExpMatch(str, pattern) {"
+      + "  pattern = pattern.replace(/\\./g, '\\\\.').replace(/\\*/g, '.*').replace(/\\?/g, '.');"
+      + "  return new RegExp('^' + pattern + '$').test(str);"
+      + "}"
+      + "function isIp(host) {"
+      + "  return /^\\d+\\.\\d+\\.\\d+\\.\\d+$/.test(host);"
+      + "}"
+      + "function dnsResolve(host) {"
+      + "  if (isIp(host)) {"
+      + "    return host;"
+      + "  }"
+      + "  return host === 'localhost' ? '127.0.0.1' : '93.184.216.34';"
+      + "}"
+      + "function toInt(ip) {"
+      + "  var parts = ip.split('.');"
+      + "  return ((parts[0] << 24) | (parts[1] << 16) | (parts[2] << 8) | parts[3]) >>> 0;"
+      + "}"
+      + "function isInNet(host, pattern, mask) {"
+      + "  var ip = dnsResolve(host);"
+      + "  return ip != null && (toInt(ip) & toInt(mask)) >>> 0 === (toInt(pattern) & toInt(mask)) >>> 0;"
+      + "}";
+
+  private static final String[] HOSTS = {"baidu.com", "pan.baidu.com", "d.pcs.baidu.com", "xpcs.baidu.com",
+      "xbaidu.com", "baidu.com.cn", "www.bilibili.com", "bilibili.com", "api.bilibili.com.evil.com",
+      "www.youku.com", "youku.com", "v.youku.com", "iqiyi.com", "www.iqiyi.com", "a.b.iqiyi.com", "d1.example.org",
+      "d12.example.org", "example.org", "www.example.org", "x.cdn1.net", "x.y.cdn.net", "cdn.net",
+      "video.foo.com", "video.com", "e.a.b.c.d", "a.b.c.d", "localhost", "127.0.0.1", "127.1.2.1",
+      "127.0.0.2", "10.0.0.1", "192.168.1.1", "github.com", "raw.githubusercontent.com", ".baidu.com",
+      "BAIDU.COM", "pan.BAIDU.com"};
+
+  //新旧PAC对同一批host的代理结果完全一致
+  @Test
+  public void sameResultAsLegacy() throws Exception {
+    List<Set<String>> wildcardSets = new ArrayList<>();
+    wildcardSets.add(new HashSet<>());
+    wildcardSets.add(new HashSet<>(Arrays.asList("*.baidu.com", "pan.baidu.com", "*.bilibili.com", "bilibili.com",
+        "*.pcs.baidu.com", "www.youku.com", "*.iqiyi.com")));
+    wildcardSets.add(new HashSet<>(Arrays.asList("*.baidu.com", "*pcs.baidu.com", "d?.example.org", "*.cdn*.net",
+        "video.*.com", "example.org", "*.a.b.c.d")));
+    wildcardSets.add(new HashSet<>(Arrays.asList("*")));
+    List<String> mismatches = new ArrayList<>();
+    for (Set<String> wildcards : wildcardSets) {
+      Invocable legacy = evalPac(buildLegacy(wildcards, 9999));
+      Invocable compiled = evalPac(PacContent.build(wildcards, 9999));
+      for (String host : HOSTS) {
+        String url = "https://" + host + "/index.html";
+        Object expect = legacy.invokeFunction("FindProxyForURL", url, host);
+        Object actual = compiled.invokeFunction("FindProxyForURL", url, host);
+        if (!expect.equals(actual)) {
+          mismatches.add(wildcards + " " + host + ": expect " + expect + ", actual " + actual);
+        }
+      }
+    }
+    Assert.assertEquals(new ArrayList<>(), mismatches);
+  }
+
+  //同样的域名集合不管顺序如何生成的内容都一样，hash才稳定
+  @Test
+  public void buildIsOrderIndependent() {
+    List<String> domains = Arrays.asList("*.baidu.com", "pan.baidu.com", "video.*.com", "example.org");
+    Set<String> reversed = new LinkedHashSet<>();
+    for (int i = domains.size() - 1; i >= 0; i--) {
+      reversed.add(domains.get(i));
+    }
+    Assert.assertEquals(PacContent.build(new LinkedHashSet<>(domains), 9999), PacContent.build(reversed, 9999));
+  }
+
+  private static String buildLegacy(Set<String> domains, int port) {
+    StringBuilder domainsBuilder = new StringBuilder();
+    for (String domain : domains) {
+      if (domainsBuilder.length() != 0) {
+        domainsBuilder.append(",");
+      }
+      domainsBuilder.append("'" + domain + "'");
+    }
+    return LEGACY_PAC_TEMPLATE.replace("{port}", port + "").replace("{domains}", domainsBuilder.toString());
+  }
+
+  private static Invocable evalPac(String pac) throws ScriptException {
+    ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+    //JDK 15之后没有内置Nashorn
+    Assume.assumeNotNull(engine);
+    engine.eval(PAC_FUNCTIONS);
+    engine.eval(pac);
+    return (Invocable) engine;
+  }
+}
@@ -0,0 +1,148 @@
+package org.pdown.gui.extension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SniffMatcherTest {
+
+  private static final String[] REGEXS = {
+      "^.*\\.baidupcs\\.com/file/.*$",
+      "^(pcs|d|nb)\\.baidupcs\\.com/file/.*$",
+      "^pan\\.baidu\\.com/api/sharedownload.*$",
+      "^pan\\.baidu\\.com:8080/share/.*",
+      "^www\\.example\\.com/dl/[^/]+\\.zip$",
+      "^d?l\\.example\\.org/.*$",
+      "^[^/]*\\.cdn\\.example\\.net/video/.*\\.mp4$",
+      "^http://abs\\.example\\.com/.*$",
+      "^a\\.b\\.com/x+y/.*",
+      "^(?i)CASE\\.example\\.com/.*$",
+      "^files\\.example\\.com/get\\?id=\\d+$",
+      "^mirror[0-9]\\.example\\.com/.*|^other\\.example\\.com/.*",
+      "^host\\.com/a{0,1}b/.*",
+      "^host\\.com/a*?b/.*",
+      "^x\\.com/(a|b)c/.*",
+      "^y\\.com/[]x]/.*",
+      "^nohost.*",
+      "[",
+  };
+
+  private static final String[][] REQUESTS = {
+      {"d.baidupcs.com", "/file/abc?x=1"},
+      {"pcs.baidupcs.com", "/file/abc"},
+      {"nb.baidupcs.com:443", "/file/abc"},
+      {"evil.com", "/x.baidupcs.com/file/1"},
+      {"pan.baidu.com", "/api/sharedownload?sign=1"},
+      {"pan.baidu.com:8080", "/share/1"},
+      {"pan.baidu.com", "/share/1"},
+      {"www.example.com", "/dl/a.zip"},
+      {"www.example.com", "/dl/a/b.zip"},
+      {"l.example.org", "/a"},
+      {"dl.example.org", "/a"},
+      {"ddl.example.org", "/a"},
+      {"img.cdn.example.net", "/video/1.mp4"},
+      {"img.cdn.example.net", "/video/1.mp3"},
+      {"abs.example.com", "http://abs.example.com/x"},
+      {"abs.example.com", "/x"},
+      {"a.b.com", "/xxy/1"},
+      {"a.b.com", "/y/1"},
+      {"case.EXAMPLE.com", "/1"},
+      {"files.example.com", "/get?id=12"},
+      {"files.example.com", "/get?id=ab"},
+      {"mirror3.example.com", "/1"},
+      {"other.example.com", "/1"},
+      {"host.com", "/b/1"},
+      {"host.com", "/ab/1"},
+      {"host.com", "/aab/1"},
+      {"x.com", "/ac/1"},
+      {"x.com", "/bc/1"},
+      {"y.com", "/]/1"},
+      {"y.com", "/x/1"},
+      {"nohost", "/"},
+      {"nohost.example.com", "/"},
+      {"www.google.com", "/"},
+      {"www.google.com", "/search?q=1"},
+      {"www.google.com:8443", "/"},
+  };
+
+  //和逐个调用String.matches的结果一致，无效的正则被忽略
+  @Test
+  public void matchSameAsStringMatches() {
+    SniffMatcher matcher = SniffMatcher.build(new LinkedHashSet<>(Arrays.asList(REGEXS)));
+    List<String> mismatches = new ArrayList<>();
+    for (String[] request : REQUESTS) {
+      String host = request[0];
+      String uri = request[1];
+      String url = uri.startsWith("/") ? (uri.length() > 1 ? host + uri : host) : uri;
+      boolean expect = false;
+      for (String regex : REGEXS) {
+        try {
+          expect |= url.matches(regex);
+        } catch (Exception e) {
+        }
+      }
+      if (expect != matcher.match(host, uri)) {
+        mismatches.add(url + " expect=" + expect);
+      }
+    }
+    Assert.assertEquals(new ArrayList<>(), mismatches);
+  }
+
+  @Test
+  public void buildEmpty() {
+    Assert.assertSame(SniffMatcher.EMPTY, SniffMatcher.build(null));
+    Assert.assertSame(SniffMatcher.EMPTY, SniffMatcher.build(Collections.emptySet()));
+    Assert.assertTrue(SniffMatcher.EMPTY.isEmpty());
+    Assert.assertFalse(SniffMatcher.EMPTY.match("www.example.com", "/"));
+    //只有无效正则时也不匹配任何请求
+    SniffMatcher invalid = SniffMatcher.build(Collections.singleton("["));
+    Assert.assertTrue(invalid.isEmpty());
+  }
+
+  @Test
+  public void matchNullRequest() {
+    SniffMatcher matcher = SniffMatcher.build(Collections.singleton("^.*$"));
+    Assert.assertFalse(matcher.match(null, "/"));
+    Assert.assertFalse(matcher.match("www.example.com", null));
+  }
+
+  @Test
+  public void literalRuns() {
+    Assert.assertEquals(Arrays.asList("pan.baidu.com/api/sharedownload", "", "", ""),
+        SniffMatcher.literalRuns("^pan\\.baidu\\.com/api/sharedownload.*$"));
+    //开头不是固定字符串时第一个元素为空
+    Assert.assertEquals(Arrays.asList("", "", ".baidupcs.com/file/", "", "", ""),
+        SniffMatcher.literalRuns("^.*\\.baidupcs\\.com/file/.*$"));
+    Assert.assertEquals(Arrays.asList("", ".baidupcs.com/file/", "", "", ""),
+        SniffMatcher.literalRuns("^(pcs|d|nb)\\.baidupcs\\.com/file/.*$"));
+    Assert.assertEquals(Arrays.asList("www.example.com/dl/", "", ".zip", ""),
+        SniffMatcher.literalRuns("^www\\.example\\.com/dl/[^/]+\\.zip$"));
+    //?和{}前面的字符可以不出现，+前面的字符至少出现一次
+    Assert.assertEquals(Arrays.asList("", "l.example.org/", "", "", ""),
+        SniffMatcher.literalRuns("^d?l\\.example\\.org/.*$"));
+    Assert.assertEquals(Arrays.asList("host.com/", "b/", "", ""),
+        SniffMatcher.literalRuns("^host\\.com/a{0,1}b/.*"));
+    Assert.assertEquals(Arrays.asList("host.com/", "b/", "", ""),
+        SniffMatcher.literalRuns("^host\\.com/a*?b/.*"));
+    Assert.assertEquals(Arrays.asList("a.b.com/x", "y/", "", ""),
+        SniffMatcher.literalRuns("^a\\.b\\.com/x+y/.*"));
+    Assert.assertEquals(Arrays.asList("files.example.com/get?id=", "", "", ""),
+        SniffMatcher.literalRuns("^files\\.example\\.com/get\\?id=\\d+$"));
+    //字符类开头的]是普通字符
+    Assert.assertEquals(Arrays.asList("y.com/", "/", "", ""),
+        SniffMatcher.literalRuns("^y\\.com/[]x]/.*"));
+  }
+
+  //最外层的|、内联标志和\Q无法分析
+  @Test
+  public void literalRunsUnsupported() {
+    Assert.assertNull(SniffMatcher.literalRuns("^(?i)CASE\\.example\\.com/.*$"));
+    Assert.assertNull(SniffMatcher.literalRuns("^mirror[0-9]\\.example\\.com/.*|^other\\.example\\.com/.*"));
+    Assert.assertNull(SniffMatcher.literalRuns("\\Qa.b\\E"));
+    Assert.assertNull(SniffMatcher.literalRuns("abc\\"));
+  }
+}
@@ -0,0 +1,93 @@
+package org.pdown.gui.extension.mitm.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比隧道通过pipeline复制转发和splice转发的吞吐量与cpu占用，参数为每轮发送的MB数，默认1024
+ */
+public class SpliceBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    if (!Epoll.isAvailable()) {
+      System.out.println("Epoll is not available: " + Epoll.unavailabilityCause());
+      return;
+    }
+    long total = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+    EpollEventLoopGroup group = new EpollEventLoopGroup(2);
+    try {
+      //预热
+      benchmark(group, false, total / 4);
+      benchmark(group, true, total / 4);
+      for (int i = 0; i < 3; i++) {
+        print("copy", total, benchmark(group, false, total));
+        print("splice", total, benchmark(group, true, total));
+      }
+    } finally {
+      group.shutdownGracefully();
+    }
+  }
+
+  private static void print(String mode, long total, long[] result) {
+    double gb = total / 1024D / 1024 / 1024;
+    System.out.printf("%-6s %8.1f MB/s  %6.2f cpu s/GB%n",
+        mode, total / 1024D / 1024 / (result[0] / 1000000000D), result[1] / 1000000000D / gb);
+  }
+
+  //返回耗时和进程cpu时间(纳秒)
+  private static long[] benchmark(EpollEventLoopGroup group, boolean splice, long total) throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicLong received = new AtomicLong();
+    //接收端只统计字节数
+    Channel sink = new ServerBootstrap().group(group)
+        .channel(EpollServerSocketChannel.class)
+        .childHandler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            int size = ((ByteBuf) msg).readableBytes();
+            ReferenceCountUtil.release(msg);
+            if (received.addAndGet(size) >= total) {
+              done.countDown();
+            }
+          }
+        })
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+    Channel relay = SpliceUtilTest.startRelay(group, (InetSocketAddress) sink.localAddress(), splice);
+    Channel client = new Bootstrap().group(group)
+        .channel(EpollSocketChannel.class)
+        .handler(new ChannelInboundHandlerAdapter())
+        .connect(relay.localAddress()).sync().channel();
+    ByteBuf chunk = Unpooled.unreleasableBuffer(Unpooled.directBuffer(65536).writeZero(65536));
+    com.sun.management.OperatingSystemMXBean osBean =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    long startCpu = osBean.getProcessCpuTime();
+    long start = System.nanoTime();
+    for (long sent = 0; sent < total; sent += chunk.capacity()) {
+      //发送端按可写状态限速，避免把数据都堆在内存里
+      while (!client.isWritable()) {
+        Thread.sleep(0, 100000);
+      }
+      client.writeAndFlush(chunk.duplicate());
+    }
+    done.await();
+    long[] result = {System.nanoTime() - start, osBean.getProcessCpuTime() - startCpu};
+    client.close().sync();
+    relay.close().sync();
+    sink.close().sync();
+    return result;
+  }
+}
@@ -0,0 +1,136 @@
+package org.pdown.gui.extension.mitm.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpliceUtilTest {
+
+  private EpollEventLoopGroup group;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(Epoll.isAvailable());
+    group = new EpollEventLoopGroup(2);
+  }
+
+  @After
+  public void tearDown() {
+    if (group != null) {
+      group.shutdownGracefully().syncUninterruptibly();
+    }
+  }
+
+  //客户端 -> splice中转 -> 回显服务器 -> splice中转 -> 客户端，两个方向的数据都要完整且有序
+  @Test
+  public void relay() throws Exception {
+    Channel echo = new ServerBootstrap().group(group).channel(EpollServerSocketChannel.class)
+        .childHandler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.writeAndFlush(msg);
+          }
+        })
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+    Channel relay = startRelay(group, (InetSocketAddress) echo.localAddress());
+
+    int total = 8 * 1024 * 1024;
+    ByteBuf expected = Unpooled.buffer(total);
+    for (int i = 0; i < total; i++) {
+      expected.writeByte(i * 31 + (i >>> 8));
+    }
+    ByteBuf received = Unpooled.buffer(total);
+    CountDownLatch done = new CountDownLatch(1);
+    Channel client = new Bootstrap().group(group).channel(EpollSocketChannel.class)
+        .handler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            received.writeBytes(buf);
+            buf.release();
+            if (received.readableBytes() >= total) {
+              done.countDown();
+            }
+          }
+        })
+        .connect(relay.localAddress()).sync().channel();
+    for (int i = 0; i < total; i += 64 * 1024) {
+      client.writeAndFlush(expected.retainedSlice(i, Math.min(64 * 1024, total - i)));
+    }
+    Assert.assertTrue("relay timed out at " + received.readableBytes() + " bytes", done.await(30, TimeUnit.SECONDS));
+    Assert.assertEquals(expected, received);
+
+    client.close().sync();
+    relay.close().sync();
+    echo.close().sync();
+  }
+
+  /**
+   * 和代理服务器一样在注册前设置水平触发，客户端连接上之后连接目标服务器并开始splice，
+   * splice=false时通过pipeline复制转发，用于对比
+   */
+  static Channel startRelay(EpollEventLoopGroup group, InetSocketAddress target, boolean splice) throws InterruptedException {
+    return new ServerBootstrap().group(group).channel(EpollServerSocketChannel.class)
+        .childOption(ChannelOption.AUTO_READ, false)
+        .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED)
+        .childHandler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelActive(ChannelHandlerContext ctx) {
+            Channel clientChannel = ctx.channel();
+            new Bootstrap().group(clientChannel.eventLoop()).channel(EpollSocketChannel.class)
+                .option(ChannelOption.AUTO_READ, false)
+                .option(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED)
+                .handler(new ChannelInboundHandlerAdapter() {
+                  @Override
+                  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    clientChannel.writeAndFlush(msg);
+                  }
+                })
+                .connect(target).addListener((ChannelFutureListener) future -> {
+                  if (!future.isSuccess()) {
+                    clientChannel.close();
+                    return;
+                  }
+                  Channel proxyChannel = future.channel();
+                  if (splice) {
+                    SpliceUtil.splice(clientChannel, proxyChannel);
+                  } else {
+                    clientChannel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                      @Override
+                      public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        proxyChannel.writeAndFlush(msg);
+                      }
+                    });
+                    clientChannel.config().setAutoRead(true);
+                    proxyChannel.config().setAutoRead(true);
+                  }
+                });
+          }
+        })
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+  }
+
+  private static Channel startRelay(EpollEventLoopGroup group, InetSocketAddress target) throws InterruptedException {
+    return startRelay(group, target, true);
+  }
+}